@@ -0,0 +1,40 @@
+/*
+ * Copyright 2018 Deepank Mehta. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * You may not use this file; except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * Distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * Limitations under the License.
+ */
+package com.deepankmehta.booklistingapp;
+
+import android.util.Log;
+
+import com.deepankmehta.booklistingapp.core.BookLog;
+
+/**
+ * Sends the log messages of the core classes to android.util.Log, debug messages only in debug builds
+ */
+final class AndroidLogger implements BookLog.Logger {
+
+    @Override
+    public boolean isDebugEnabled() {
+        return BuildConfig.DEBUG;
+    }
+
+    @Override
+    public void d(String tag, String message) {
+        if (BuildConfig.DEBUG) {
+            Log.d(tag, message);
+        }
+    }
+
+    @Override
+    public void e(String tag, String message, Throwable throwable) {
+        Log.e(tag, message, throwable);
+    }
+}
@@ -14,27 +14,42 @@
 package com.deepankmehta.booklistingapp;
 
 import android.app.LoaderManager;
-import android.content.Context;
 import android.content.Intent;
 import android.content.Loader;
-import android.net.ConnectivityManager;
-import android.net.NetworkInfo;
+import android.database.Cursor;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Trace;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.text.TextUtils;
+import android.view.Menu;
+import android.view.MenuItem;
+import android.view.SubMenu;
 import android.view.View;
-import android.widget.AdapterView;
 import android.widget.Button;
-import android.widget.ListView;
+import android.widget.FilterQueryProvider;
 import android.widget.SearchView;
+import android.widget.SimpleCursorAdapter;
 import android.widget.TextView;
 
+import com.deepankmehta.booklistingapp.core.Book;
+import com.deepankmehta.booklistingapp.core.BookClient;
+import com.deepankmehta.booklistingapp.core.BookMetrics;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
 
 import static android.view.View.GONE;
 
-public class BookActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<List<Book>> {
+public class BookActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<List<BookRow>>,
+        BookLoader.ProgressListener, NetworkMonitor.Listener {
 
     /**
      * Tag for the log messages
@@ -45,8 +60,69 @@ public class BookActivity extends AppCompatActivity implements LoaderManager.Loa
      * Constants
      */
     private static final int BOOK_LOADER = 1;
-    ListView bookListView;
-    boolean isConnected;
+    private static final int PAGE_LOADER = 2;
+
+    /**
+     * Number of rows left below the last visible one when the next page is requested
+     */
+    private static final int PREFETCH_DISTANCE = 10;
+
+    /**
+     * Key of the page URL in the arguments of the page loader
+     */
+    private static final String ARG_PAGE_URL = "pageUrl";
+
+    /**
+     * Key of the search value in the arguments of the book loader, the query of the search view if missing
+     */
+    private static final String ARG_QUERY = "query";
+
+    /**
+     * Time the query must stay unchanged before a search starts while typing,
+     * and the minimum length of such a query
+     */
+    private static final long SEARCH_DEBOUNCE_MS = 300;
+    private static final int MIN_QUERY_LENGTH = 3;
+
+    /**
+     * Number of suggestions shown under the search view
+     */
+    private static final int SUGGESTION_COUNT = 8;
+
+    /**
+     * Number of pages fetched in parallel by a deep search
+     */
+    private static final int DEEP_SEARCH_PAGES = 10;
+
+    /**
+     * Key of the snapshot file name and generation in the saved state, and the directory of the snapshots
+     */
+    private static final String KEY_SNAPSHOT = "snapshot";
+    private static final String KEY_SNAPSHOT_GENERATION = "snapshotGeneration";
+    private static final String KEY_SEARCH_VALUE = "searchValue";
+    private static final String SNAPSHOT_DIRECTORY = "snapshots";
+    private static final String SNAPSHOT_FILE = "results";
+
+    /**
+     * Keys of the first books in the saved state, shown if the snapshot can't be read.
+     * They are few enough to keep the Bundle far below the size limit of a transaction.
+     */
+    private static final String KEY_QUERY = "query";
+    private static final String KEY_URL = "url";
+    private static final String KEY_SCROLL_POSITION = "scrollPosition";
+    private static final String KEY_BOOKS = "books";
+    private static final String KEY_START_INDEXES = "startIndexes";
+    private static final int MAX_SAVED_BOOKS = 20;
+
+    /**
+     * Keys of the sort order and the filters in the saved state
+     */
+    private static final String KEY_SORT_ORDER = "sortOrder";
+    private static final String KEY_LANGUAGE = "language";
+    private static final String KEY_CURRENCY = "currency";
+    private static final String KEY_MIN_PRICE = "minPrice";
+    private static final String KEY_MAX_PRICE = "maxPrice";
+    RecyclerView bookListView;
 
     /**
      * Variables
@@ -55,25 +131,136 @@ public class BookActivity extends AppCompatActivity implements LoaderManager.Loa
     private TextView mEmptyTextView;
     private View mProgressBar;
     private BookAdapter mAdapter;
+
+    /**
+     * Every loaded row, and the order and filters applied to the adapter
+     */
+    private BookQueryEngine mResults;
+    private LinearLayoutManager mLayoutManager;
     private SearchView mSearchViewField;
 
+    /**
+     * Connectivity, and the page size and projection that suit the network
+     */
+    private NetworkMonitor mNetworkMonitor;
+
+    /**
+     * Search value of the last search made without a connection, it runs again once connected
+     */
+    private String mPendingQuery;
+
+    /**
+     * True if the next search fetches DEEP_SEARCH_PAGES pages at once
+     */
+    private boolean mDeepSearch;
+    private final Handler mHandler = new Handler();
+
+    /**
+     * Starts the search for the current query once the user stops typing
+     */
+    private final Runnable mDebouncedSearch = new Runnable() {
+        @Override
+        public void run() {
+            mDeepSearch = false;
+            search(false);
+        }
+    };
+
+    /**
+     * Requests the next page outside of the delivery of the previous one
+     */
+    private final Runnable mLoadNextPage = new Runnable() {
+        @Override
+        public void run() {
+            loadNextPage();
+        }
+    };
+
+    /**
+     * Loader whose books are being added to the adapter while they are parsed
+     * and the number of books it added so far
+     */
+    private Loader<List<BookRow>> mStreamingLoader;
+    private int mStreamedCount;
+
+    /**
+     * Pages of the current search after the first one, kept across a configuration change
+     */
+    private BookPager mPager;
+
+    /**
+     * URL of the results restored from a snapshot, so restoring the query doesn't search again
+     */
+    private String mRestoredUrl;
+
+    /**
+     * Generation of the last snapshot saved or restored
+     */
+    private long mSnapshotGeneration;
+
+    /**
+     * Search value of the results shown, the one a watched book is checked through.
+     * The query of the SearchView may have been edited since.
+     */
+    private String mShownSearchValue;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
-        setContentView(R.layout.activity_book);
+        Trace.beginSection("BookActivity.setContentView");
+        try {
+            setContentView(R.layout.activity_book);
+        } finally {
+            Trace.endSection();
+        }
+        StartupTrace.watchFirstFrame(this);
 
-        // Find a reference to the ListView in the layout
-        bookListView = (ListView) findViewById(R.id.list);
+        // Find a reference to the RecyclerView in the layout
+        bookListView = (RecyclerView) findViewById(R.id.list);
+        mLayoutManager = new LinearLayoutManager(this);
+        bookListView.setLayoutManager(mLayoutManager);
+        bookListView.setHasFixedSize(true);
 
-        // Create a new adapter that takes an empty list of books as input
-        mAdapter = new BookAdapter(this,  new ArrayList<Book>());
+        // Create a new adapter, the list changes are computed in the background
+        mAdapter = new BookAdapter(this);
 
-        // Ser the adapter on the ListView
+        // Ser the adapter on the RecyclerView
         bookListView.setAdapter(mAdapter);
 
-        // EmptyTextView
+        // The loaded rows go through the sort order and the filters picked in the menu
+        mResults = new BookQueryEngine(mAdapter);
+        Object retainedPager = getLastCustomNonConfigurationInstance();
+        mPager = retainedPager instanceof BookPager ? (BookPager) retainedPager : new BookPager();
+        if (savedInstanceState != null) {
+            mResults.setQuery(restoreQuery(savedInstanceState));
+        }
+
+        // Load the next page when the user gets close to the end of the list
+        mAdapter.setOnLoadMoreListener(new BookAdapter.OnLoadMoreListener() {
+            @Override
+            public void onLoadMore() {
+                loadNextPage();
+            }
+        }, PREFETCH_DISTANCE);
+
+        // EmptyTextView, shown whenever the list becomes empty
         mEmptyTextView = (TextView) findViewById(R.id.empty_view);
-        bookListView.setEmptyView(mEmptyTextView);
+        mAdapter.registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
+            @Override
+            public void onChanged() {
+                updateEmptyView();
+            }
+
+            @Override
+            public void onItemRangeInserted(int positionStart, int itemCount) {
+                updateEmptyView();
+            }
+
+            @Override
+            public void onItemRangeRemoved(int positionStart, int itemCount) {
+                updateEmptyView();
+            }
+        });
 
         // Search Button
         Button mSearchButton = (Button) findViewById(R.id.search_button);
@@ -86,119 +273,684 @@ public class BookActivity extends AppCompatActivity implements LoaderManager.Loa
         mSearchViewField.onActionViewExpanded();
         mSearchViewField.setIconified(true);
         mSearchViewField.setQueryHint("Enter a Tite");
-
-        // Initialization of connectivity manager for checking internet connection
-        final ConnectivityManager connectivityManager = (ConnectivityManager) this.getSystemService(Context.CONNECTIVITY_SERVICE);
-
-        /**
-         * Check the connection with internet and save in a boolean
-         * if is connected is true then load LoaderManager
-         * if is connected is false load emptyTextView
-         */
-        checkConnection(connectivityManager);
-
-        if (isConnected) {
-            // Get a reference to the LoaderManager
-            LoaderManager loaderManager = getLoaderManager();
-            // Initialize the loader
-            loaderManager.initLoader(BOOK_LOADER, null, this);
-        } else {
-            // ProgressBar mapping
-            mProgressBar.setVisibility(View.GONE);
-            // Display emptyTextView
-            mEmptyTextView.setText("No Internet Connection");
+        setUpSuggestions();
+
+        // Without a connection the loader searches the local catalog,
+        // and the search goes to Google Books once connected
+        mNetworkMonitor = new NetworkMonitor(this, this);
+
+        // Get a reference to the LoaderManager
+        LoaderManager loaderManager = getLoaderManager();
+        // After the process was killed, the results come back from the snapshot without the network
+        boolean restoring = savedInstanceState != null && loaderManager.getLoader(BOOK_LOADER) == null
+                && restoreSnapshot(savedInstanceState);
+        if (loaderManager.getLoader(BOOK_LOADER) != null) {
+            // Reconnect to the loader kept across a configuration change
+            BookLoader loader = (BookLoader) loaderManager.initLoader(BOOK_LOADER, null, this);
+            loader.setProgressListener(this);
+            if (loader.isOffline()) {
+                mPendingQuery = loader.getSearchValue();
+            }
+            // The page in flight is delivered to this activity, not to the one that requested it
+            if (loaderManager.getLoader(PAGE_LOADER) != null) {
+                loaderManager.initLoader(PAGE_LOADER, null, this);
+            }
+        } else if (!restoring) {
+            showEnterToSearch();
         }
 
         // Sends a request to Google Books API including the search value
         mSearchButton.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View v) {
-                checkConnection(connectivityManager);
-                if (isConnected) {
-                    // Update the URL and restart the loader
-                    updateQueryUrl(mSearchViewField.getQuery().toString());
-                    restartLoader();
-                } else {
-                    mAdapter.clear();
-                    // Set emptyTextView visible
-                    mEmptyTextView.setVisibility(View.VISIBLE);
-                    // Display the message
-                    mEmptyTextView.setText("No Internet Connection");
+                mHandler.removeCallbacks(mDebouncedSearch);
+                mDeepSearch = false;
+                search(true);
+            }
+        });
+
+        // A long click fetches the first DEEP_SEARCH_PAGES pages in parallel
+        mSearchButton.setOnLongClickListener(new View.OnLongClickListener() {
+            @Override
+            public boolean onLongClick(View v) {
+                mHandler.removeCallbacks(mDebouncedSearch);
+                mDeepSearch = true;
+                search(true);
+                return true;
+            }
+        });
+
+        // Search while the user types, once the query has stopped changing for a moment
+        mSearchViewField.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                mHandler.removeCallbacks(mDebouncedSearch);
+                mDeepSearch = false;
+                search(true);
+                return true;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                mHandler.removeCallbacks(mDebouncedSearch);
+                if (newText.trim().length() >= MIN_QUERY_LENGTH) {
+                    mHandler.postDelayed(mDebouncedSearch, SEARCH_DEBOUNCE_MS);
                 }
+                return true;
             }
         });
 
-        bookListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+        mAdapter.setOnBookClickListener(new BookAdapter.OnBookClickListener() {
             @Override
-            public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
-                // Find the current book
-                Book currentBook = mAdapter.getItem(position);
+            public void onBookClick(Book currentBook) {
                 // Convert the String URL into an URI object
-                assert currentBook != null;
                 Uri buyBookUri = Uri.parse(currentBook.getUrl());
                 // Create a new Intent
                 Intent websiteIntent = new Intent(Intent.ACTION_VIEW, buyBookUri);
                 // Start the new intent
                 startActivity(websiteIntent);
             }
+
+            @Override
+            public void onBookLongClick(BookRow row) {
+                // Watch the price of the book, or stop watching it. The book is checked through
+                // the page of the search that showed it, or through its title if there is no search.
+                Book book = row.getBook();
+                PriceWatcher priceWatcher = PriceWatcher.getInstance(BookActivity.this);
+                if (mShownSearchValue == null || mShownSearchValue.isEmpty()) {
+                    priceWatcher.toggleWatchAsync(book, toEncodedSearchValue(book.getTitle()), 0);
+                } else {
+                    // A row that didn't come from a page, like a local result, is looked up on the first one
+                    priceWatcher.toggleWatchAsync(book, mShownSearchValue, Math.max(row.getStartIndex(), 0));
+                }
+            }
         });
     }
 
-    public void checkConnection(ConnectivityManager connectivityManager) {
-        NetworkInfo activeNetwork = connectivityManager.getActiveNetworkInfo();
-        if (activeNetwork != null && activeNetwork.isConnected()) {
-            isConnected = true;
-        } else {
-            isConnected = false;
+    /**
+     * Search for the current query. Unless force is true, nothing happens
+     * if the current loader already searches for the same URL.
+     */
+    private void search(boolean force) {
+        if (!force) {
+            Loader<List<BookRow>> currentLoader = getLoaderManager().getLoader(BOOK_LOADER);
+            String url = updateQueryUrl(mSearchViewField.getQuery().toString());
+            if (currentLoader != null && url.equals(((BookLoader) currentLoader).getUrl())
+                    && ((BookLoader) currentLoader).isOffline() == !mNetworkMonitor.isConnected()) {
+                return;
+            }
+            // The restored results are already shown
+            if (currentLoader == null && url.equals(mRestoredUrl)) {
+                return;
+            }
         }
+        // Restart the loader, it searches the local catalog if there is no connection.
+        // The loader of the previous search is cancelled and its connection closed.
+        restartLoader(null);
     }
 
+    @Override
+    public void onConnectivityChanged(boolean connected) {
+        // Run the search made while offline again, unless a newer search replaced it
+        if (connected && mPendingQuery != null) {
+            Bundle args = new Bundle();
+            args.putString(ARG_QUERY, mPendingQuery);
+            restartLoader(args);
+        }
+    }
 
-    private String updateQueryUrl(String searchValue) {
-        if (searchValue.contains(" ")) {
-            searchValue = searchValue.replace(" ", "+");
+    /**
+     * Show suggestions from the local index under the search view, picking one searches for it
+     */
+    private void setUpSuggestions() {
+        final BookSuggestions suggestions = BookSuggestions.getInstance(this);
+        final SimpleCursorAdapter adapter = new SimpleCursorAdapter(this,
+                android.R.layout.simple_dropdown_item_1line, null,
+                new String[]{BookSuggestions.COLUMN_SUGGESTION}, new int[]{android.R.id.text1}, 0);
+        // The search view filters the adapter in the background as the user types
+        adapter.setFilterQueryProvider(new FilterQueryProvider() {
+            @Override
+            public Cursor runQuery(CharSequence constraint) {
+                return suggestions.suggest(constraint, SUGGESTION_COUNT);
+            }
+        });
+        adapter.setStringConversionColumn(1);
+        mSearchViewField.setSuggestionsAdapter(adapter);
+        mSearchViewField.setOnSuggestionListener(new SearchView.OnSuggestionListener() {
+            @Override
+            public boolean onSuggestionSelect(int position) {
+                return false;
+            }
+
+            @Override
+            public boolean onSuggestionClick(int position) {
+                Cursor cursor = adapter.getCursor();
+                if (cursor == null || !cursor.moveToPosition(position)) {
+                    return false;
+                }
+                mSearchViewField.setQuery(cursor.getString(1), true);
+                return true;
+            }
+        });
+    }
+
+    private void updateEmptyView() {
+        boolean empty = mAdapter.getItemCount() == 0;
+        mEmptyTextView.setVisibility(empty ? View.VISIBLE : GONE);
+        if (!empty) {
+            StartupTrace.onResultsShown();
+        }
+    }
+
+    /**
+     * Normalize the whitespace of the query so equivalent searches share the same URL
+     */
+    static String toSearchValue(String query) {
+        return query.trim().replaceAll("\\s+", "+");
+    }
+
+    /**
+     * Return the search value of a text that wasn't typed as a query, like a title,
+     * with the characters that mean something in a URL, such as "&" or "#", encoded
+     */
+    static String toEncodedSearchValue(String text) {
+        StringBuilder searchValue = new StringBuilder();
+        for (String word : text.trim().split("\\s+")) {
+            if (searchValue.length() > 0) {
+                searchValue.append('+');
+            }
+            searchValue.append(Uri.encode(word));
         }
-        // Build a new string builder for the url
-        StringBuilder stringBuilder = new StringBuilder();
-        stringBuilder.append("https://www.googleapis.com/books/v1/volumes?q=").append(searchValue).append("&filter=paid-ebooks&maxResults=40");
-        mUrlGoogleBooks = stringBuilder.toString();
+        return searchValue.toString();
+    }
+
+    private String updateQueryUrl(String searchValue) {
+        searchValue = toSearchValue(searchValue);
+        // Smaller pages without the cover images keep the first results quick on a slow network
+        mUrlGoogleBooks = BookClient.buildQueryUrl(BookClient.DEFAULT_ENDPOINT, searchValue,
+                mNetworkMonitor.getPageSize(), mNetworkMonitor.wantsImages());
         return mUrlGoogleBooks;
     }
 
     @Override
-    public Loader<List<Book>> onCreateLoader(int i, Bundle bundle) {
+    public Loader<List<BookRow>> onCreateLoader(int i, Bundle bundle) {
+        if (i == PAGE_LOADER) {
+            // Pages after the first one are appended once they are complete
+            return new BookLoader(this, bundle.getString(ARG_PAGE_URL));
+        }
+
         // Create a new loader at the beginning
-        updateQueryUrl(mSearchViewField.getQuery().toString());
-        return new BookLoader(this, mUrlGoogleBooks);
+        String searchValue = bundle != null && bundle.getString(ARG_QUERY) != null
+                ? bundle.getString(ARG_QUERY) : mSearchViewField.getQuery().toString();
+        updateQueryUrl(searchValue);
+        boolean offline = !mNetworkMonitor.isConnected();
+        mPendingQuery = offline ? searchValue : null;
+        BookLoader loader = new BookLoader(this, mUrlGoogleBooks, searchValue, offline,
+                mDeepSearch ? DEEP_SEARCH_PAGES : 1);
+        loader.setProgressListener(this);
+        return loader;
+    }
+
+    @Override
+    public void onBooksParsed(BookLoader loader, List<BookRow> rows, boolean firstBatch) {
+        // Ignore the batches of a loader that has been replaced by a newer search
+        Loader<List<BookRow>> currentLoader = getLoaderManager().getLoader(BOOK_LOADER);
+        if (loader != currentLoader) {
+            return;
+        }
+
+        if (firstBatch) {
+            // The first rows are ready, replace the previous results
+            mProgressBar.setVisibility(GONE);
+            mResults.setRows(rows);
+            mShownSearchValue = toSearchValue(loader.getSearchValue());
+            mStreamingLoader = loader;
+            mStreamedCount = rows.size();
+            loader.onRowsShown();
+            return;
+        }
+        mResults.addAll(rows);
+        mStreamedCount += rows.size();
+    }
+
+    @Override
+    public void onLocalResults(BookLoader loader, List<BookRow> rows) {
+        Loader<List<BookRow>> currentLoader = getLoaderManager().getLoader(BOOK_LOADER);
+        if (loader != currentLoader) {
+            return;
+        }
+
+        // Show the books seen before until the first network batch replaces them
+        mProgressBar.setVisibility(GONE);
+        mResults.setRows(rows);
+        mShownSearchValue = toSearchValue(loader.getSearchValue());
+        mStreamingLoader = null;
+        loader.onRowsShown();
     }
 
     @Override
-    public void onLoadFinished(Loader<List<Book>> loader, List<Book> books) {
+    public void onLoadFinished(Loader<List<BookRow>> loader, List<BookRow> rows) {
+        if (loader.getId() == PAGE_LOADER) {
+            // Drop the page if it's stale, and the books that are already in the list
+            BookLoader pageLoader = (BookLoader) loader;
+            List<BookRow> newRows = mPager.onPageLoaded(pageLoader.getUrl(), rows, pageLoader.getItemCount());
+            if (newRows != null) {
+                mResults.addAll(newRows);
+                if (newRows.isEmpty()) {
+                    // No new row gets bound to ask for the next page, ask for it now
+                    mHandler.post(mLoadNextPage);
+                }
+            }
+            return;
+        }
+
+        BookLoader bookLoader = (BookLoader) loader;
+        mShownSearchValue = toSearchValue(bookLoader.getSearchValue());
+        if (!bookLoader.isOffline() && mPager.hasFirstPages(bookLoader.getUrl(), rows)) {
+            // The same results delivered again to a recreated activity, with the pages appended to them
+            mProgressBar.setVisibility(GONE);
+            mEmptyTextView.setText("No Books Found");
+            mResults.setRows(mPager.getRows());
+            mStreamingLoader = null;
+            return;
+        }
+        if (bookLoader.isOffline()) {
+            // Local results have no further pages
+            mPager.reset();
+        } else {
+            // Following pages start after this one, or at the first page of a deep search that didn't arrive
+            mPager.onFirstPagesLoaded(bookLoader.getUrl(), bookLoader.getLoadedPageCount(), rows,
+                    bookLoader.getItemCount());
+        }
+
         // ProgressBar mapping
         mProgressBar.setVisibility(GONE);
 
         // Set text on emptyTextView
-        mEmptyTextView.setText("No Books Found");
-
-        // Clear the adapter
-        mAdapter.clear();
+        mEmptyTextView.setText(bookLoader.isOffline() ? "No Internet Connection" : "No Books Found");
+        if (rows != null && !rows.isEmpty()) {
+            bookLoader.onRowsShown();
+            if (!bookLoader.isOffline()) {
+                // A search that found books is worth suggesting again
+                BookSuggestions.getInstance(this).addQueryAsync(bookLoader.getSearchValue());
+            }
+        }
 
-        // If there is a valid list of books then add them to adapter's data set
-        if (books != null && !books.isEmpty()) {
-            mAdapter.addAll(books);
+        if (loader == mStreamingLoader && rows != null && mStreamedCount <= rows.size()) {
+            // Most of the books have already been added while they were parsed,
+            // only add the ones after the last batch
+            mResults.addAll(rows.subList(mStreamedCount, rows.size()));
+            mStreamingLoader = null;
+            return;
         }
 
+        // Replace the books of the adapter, only the rows that changed are bound again
+        mResults.setRows(rows);
+        mStreamingLoader = null;
+        if (rows == null || rows.isEmpty()) {
+            // An empty list replacing an empty list doesn't notify the observer
+            updateEmptyView();
+        }
     }
 
     @Override
-    public void onLoaderReset(Loader<List<Book>> loader) {
+    public void onLoaderReset(Loader<List<BookRow>> loader) {
+        if (loader.getId() == PAGE_LOADER) {
+            // The books of the page, if any, stay in the list
+            return;
+        }
         // Loader reset, so we can clear out our existing data.
-        mAdapter.clear();
+        mResults.clear();
+        mShownSearchValue = null;
+        mStreamingLoader = null;
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.menu_book, menu);
+        return true;
+    }
+
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        // Show the current order and filters, and the languages and currencies of the loaded books
+        BookQuery query = mResults.getQuery();
+        menu.findItem(sortItemId(query.sortOrder)).setChecked(true);
+        preparePriceMenu(menu, query);
+        fillFilterMenu(menu.findItem(R.id.action_filter_language).getSubMenu(), R.id.group_language,
+                mResults.getLanguages(), query.language);
+        fillFilterMenu(menu.findItem(R.id.action_filter_currency).getSubMenu(), R.id.group_currency,
+                mResults.getCurrencies(), query.currency);
+        menu.findItem(R.id.action_clear_filters).setEnabled(query.hasFilters());
+        return super.onPrepareOptionsMenu(menu);
+    }
+
+    /**
+     * The price ranges are amounts of one currency, they are only offered once a currency is chosen
+     * and are labelled in that currency
+     */
+    private void preparePriceMenu(Menu menu, BookQuery query) {
+        MenuItem priceItem = menu.findItem(R.id.action_filter_price);
+        priceItem.setEnabled(query.currency != null);
+        if (query.currency == null) {
+            priceItem.setTitle(R.string.filter_price_needs_currency);
+            return;
+        }
+        priceItem.setTitle(R.string.filter_price);
+        Locale locale = Locale.getDefault();
+        String five = BookRow.formatPrice(5, query.currency, locale);
+        String twenty = BookRow.formatPrice(20, query.currency, locale);
+        menu.findItem(R.id.action_price_under_5).setTitle(getString(R.string.price_under_5, five));
+        menu.findItem(R.id.action_price_5_to_20).setTitle(getString(R.string.price_5_to_20, five, twenty));
+        menu.findItem(R.id.action_price_over_20).setTitle(getString(R.string.price_over_20, twenty));
+        menu.findItem(priceItemId(query)).setChecked(true);
+    }
+
+    /**
+     * Replace the items of a filter submenu with "Any" and the given values, and check the selected one
+     */
+    private static void fillFilterMenu(SubMenu subMenu, int groupId, List<String> values, String selected) {
+        subMenu.clear();
+        subMenu.add(groupId, Menu.NONE, 0, R.string.filter_any);
+        int selectedIndex = 0;
+        for (int i = 0; i < values.size(); i++) {
+            subMenu.add(groupId, Menu.FIRST + i, i + 1, values.get(i));
+            if (values.get(i).equals(selected)) {
+                selectedIndex = i + 1;
+            }
+        }
+        subMenu.setGroupCheckable(groupId, true, true);
+        subMenu.getItem(selectedIndex).setChecked(true);
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        // The loaded books are sorted and filtered on the device, nothing is fetched again
+        BookQuery query = mResults.getQuery();
+        switch (item.getItemId()) {
+            case R.id.action_sort_relevance:
+                query = query.withSortOrder(BookQuery.SortOrder.RELEVANCE);
+                break;
+            case R.id.action_sort_price_ascending:
+                query = query.withSortOrder(BookQuery.SortOrder.PRICE_ASCENDING);
+                break;
+            case R.id.action_sort_price_descending:
+                query = query.withSortOrder(BookQuery.SortOrder.PRICE_DESCENDING);
+                break;
+            case R.id.action_sort_title:
+                query = query.withSortOrder(BookQuery.SortOrder.TITLE);
+                break;
+            case R.id.action_sort_author:
+                query = query.withSortOrder(BookQuery.SortOrder.AUTHOR);
+                break;
+            case R.id.action_price_any:
+                query = query.withPriceRange(0, Long.MAX_VALUE);
+                break;
+            case R.id.action_price_under_5:
+                query = query.withPriceRange(0, 499);
+                break;
+            case R.id.action_price_5_to_20:
+                query = query.withPriceRange(500, 2000);
+                break;
+            case R.id.action_price_over_20:
+                query = query.withPriceRange(2001, Long.MAX_VALUE);
+                break;
+            case R.id.action_clear_filters:
+                query = query.withoutFilters();
+                break;
+            default:
+                if (item.getGroupId() == R.id.group_language) {
+                    query = query.withLanguage(item.getItemId() == Menu.NONE ? null : item.getTitle().toString());
+                } else if (item.getGroupId() == R.id.group_currency) {
+                    String currency = item.getItemId() == Menu.NONE ? null : item.getTitle().toString();
+                    if (!TextUtils.equals(currency, query.currency)) {
+                        // A price range doesn't carry over to another currency
+                        query = query.withCurrency(currency).withPriceRange(0, Long.MAX_VALUE);
+                    }
+                } else {
+                    return super.onOptionsItemSelected(item);
+                }
+        }
+        mResults.setQuery(query);
+        bookListView.scrollToPosition(0);
+        return true;
+    }
+
+    private static int sortItemId(BookQuery.SortOrder sortOrder) {
+        switch (sortOrder) {
+            case PRICE_ASCENDING:
+                return R.id.action_sort_price_ascending;
+            case PRICE_DESCENDING:
+                return R.id.action_sort_price_descending;
+            case TITLE:
+                return R.id.action_sort_title;
+            case AUTHOR:
+                return R.id.action_sort_author;
+            default:
+                return R.id.action_sort_relevance;
+        }
+    }
+
+    private static int priceItemId(BookQuery query) {
+        if (!query.hasPriceRange()) {
+            return R.id.action_price_any;
+        }
+        if (query.maxPriceHundredths < 500) {
+            return R.id.action_price_under_5;
+        }
+        return query.minPriceHundredths < 2001 ? R.id.action_price_5_to_20 : R.id.action_price_over_20;
+    }
+
+    /**
+     * Return the order and filters kept in the saved state
+     */
+    private static BookQuery restoreQuery(Bundle savedInstanceState) {
+        String sortOrder = savedInstanceState.getString(KEY_SORT_ORDER);
+        BookQuery query = BookQuery.DEFAULT;
+        if (sortOrder != null) {
+            query = query.withSortOrder(BookQuery.SortOrder.valueOf(sortOrder));
+        }
+        String currency = savedInstanceState.getString(KEY_CURRENCY);
+        query = query.withLanguage(savedInstanceState.getString(KEY_LANGUAGE)).withCurrency(currency);
+        if (currency == null) {
+            // Price ranges only apply within a currency
+            return query;
+        }
+        return query.withPriceRange(savedInstanceState.getLong(KEY_MIN_PRICE, 0),
+                savedInstanceState.getLong(KEY_MAX_PRICE, Long.MAX_VALUE));
+    }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        BookQuery query = mResults.getQuery();
+        outState.putString(KEY_SORT_ORDER, query.sortOrder.name());
+        outState.putString(KEY_LANGUAGE, query.language);
+        outState.putString(KEY_CURRENCY, query.currency);
+        outState.putLong(KEY_MIN_PRICE, query.minPriceHundredths);
+        outState.putLong(KEY_MAX_PRICE, query.maxPriceHundredths);
+
+        List<BookRow> rows = mResults.getRows();
+        if (rows.isEmpty()) {
+            return;
+        }
+        // The books go to a file, the Bundle only gets its name
+        String searchQuery = mSearchViewField.getQuery().toString();
+        int scrollPosition = Math.max(0, mLayoutManager.findFirstVisibleItemPosition());
+        // A new generation per save, so a file the process died before replacing isn't restored
+        mSnapshotGeneration = Math.max(mSnapshotGeneration + 1, System.currentTimeMillis());
+        ResultSnapshot snapshot = new ResultSnapshot(mSnapshotGeneration, searchQuery, mUrlGoogleBooks,
+                scrollPosition, rows);
+        snapshot.writeAsync(getSnapshotFile(SNAPSHOT_FILE));
+        outState.putString(KEY_SNAPSHOT, SNAPSHOT_FILE);
+        outState.putLong(KEY_SNAPSHOT_GENERATION, mSnapshotGeneration);
+        outState.putString(KEY_SEARCH_VALUE, mShownSearchValue);
+
+        // And the first books to the Bundle too, in case the file can't be read
+        List<BookRow> firstRows = rows.subList(0, Math.min(rows.size(), MAX_SAVED_BOOKS));
+        int[] startIndexes = new int[firstRows.size()];
+        for (int i = 0; i < startIndexes.length; i++) {
+            startIndexes[i] = firstRows.get(i).getStartIndex();
+        }
+        outState.putString(KEY_QUERY, searchQuery);
+        outState.putString(KEY_URL, mUrlGoogleBooks);
+        outState.putInt(KEY_SCROLL_POSITION, Math.min(scrollPosition, firstRows.size() - 1));
+        outState.putParcelableArrayList(KEY_BOOKS, ParcelableBook.fromRows(firstRows));
+        outState.putIntArray(KEY_START_INDEXES, startIndexes);
+    }
+
+    /**
+     * Start reading the snapshot named in the saved state in the background, and show its results,
+     * or the first books of the saved state if the snapshot can't be read or is stale.
+     * Return false if there are no results to restore.
+     */
+    private boolean restoreSnapshot(final Bundle savedInstanceState) {
+        String snapshotName = savedInstanceState.getString(KEY_SNAPSHOT);
+        if (snapshotName == null) {
+            return false;
+        }
+        mSnapshotGeneration = savedInstanceState.getLong(KEY_SNAPSHOT_GENERATION);
+        // The progress bar stays until the snapshot is read
+        ResultSnapshot.readAsync(getSnapshotFile(snapshotName), mSnapshotGeneration,
+                new ResultSnapshot.Callback() {
+                    @Override
+                    public void onSnapshotRead(ResultSnapshot snapshot) {
+                        // The user may have searched, or left, while the file was read
+                        if (isDestroyed() || getLoaderManager().getLoader(BOOK_LOADER) != null) {
+                            return;
+                        }
+                        if (snapshot == null) {
+                            snapshot = savedFirstBooks(savedInstanceState);
+                        }
+                        if (snapshot == null) {
+                            showEnterToSearch();
+                        } else {
+                            showSnapshot(snapshot, savedInstanceState);
+                        }
+                    }
+                });
+        return true;
+    }
+
+    /**
+     * Show the restored results and continue paging after them
+     */
+    private void showSnapshot(ResultSnapshot snapshot, Bundle savedInstanceState) {
+        List<BookRow> rows = snapshot.rows;
+        mResults.setRows(rows);
+        mLayoutManager.scrollToPosition(snapshot.scrollPosition);
+        mUrlGoogleBooks = snapshot.url;
+        mRestoredUrl = snapshot.url;
+        mShownSearchValue = savedInstanceState.getString(KEY_SEARCH_VALUE);
+        mSearchViewField.setQuery(snapshot.query, false);
+        mProgressBar.setVisibility(GONE);
+
+        // Continue with the page after the ones that were shown
+        int pageSize = BookPager.pageSizeOf(snapshot.url);
+        int pageCount = Math.max(1, (rows.size() + pageSize - 1) / pageSize);
+        mPager.onFirstPagesLoaded(snapshot.url, pageCount, rows, -1);
+    }
+
+    /**
+     * Nothing to load until the user searches, the query is still empty
+     */
+    private void showEnterToSearch() {
+        mProgressBar.setVisibility(GONE);
+        mEmptyTextView.setText(R.string.enter_to_search);
+        mEmptyTextView.setVisibility(View.VISIBLE);
     }
 
-    public void restartLoader() {
+    /**
+     * Return the first books kept in the saved state as a snapshot, or null if there are none
+     */
+    private static ResultSnapshot savedFirstBooks(Bundle savedInstanceState) {
+        String url = savedInstanceState.getString(KEY_URL);
+        ArrayList<ParcelableBook> books = savedInstanceState.getParcelableArrayList(KEY_BOOKS);
+        int[] startIndexes = savedInstanceState.getIntArray(KEY_START_INDEXES);
+        if (url == null || books == null || books.isEmpty() || startIndexes == null
+                || startIndexes.length != books.size()) {
+            return null;
+        }
+        return new ResultSnapshot(savedInstanceState.getLong(KEY_SNAPSHOT_GENERATION),
+                savedInstanceState.getString(KEY_QUERY), url,
+                savedInstanceState.getInt(KEY_SCROLL_POSITION),
+                BookRow.fromBooks(ParcelableBook.toBooks(books), startIndexes));
+    }
+
+    private File getSnapshotFile(String snapshotName) {
+        File directory = new File(getFilesDir(), SNAPSHOT_DIRECTORY);
+        directory.mkdirs();
+        return new File(directory, snapshotName);
+    }
+
+    /**
+     * Print the search metrics with the activity state, adb shell dumpsys activity
+     * com.deepankmehta.booklistingapp/.BookActivity
+     */
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(prefix, fd, writer, args);
+        BookMetrics.dump(prefix, writer);
+    }
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+        mNetworkMonitor.start();
+        // The connection may have come back while the activity was stopped or recreated
+        if (mNetworkMonitor.isConnected()) {
+            onConnectivityChanged(true);
+        }
+    }
+
+    @Override
+    public Object onRetainCustomNonConfigurationInstance() {
+        // The loaders are kept, so are the pages appended to the results of the search loader
+        return mPager;
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        mNetworkMonitor.stop();
+        BookSuggestions.getInstance(this).saveAsync();
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mHandler.removeCallbacks(mDebouncedSearch);
+        mHandler.removeCallbacks(mLoadNextPage);
+        // The loader outlives a configuration change, don't let it keep this activity
+        Loader<List<BookRow>> loader = getLoaderManager().getLoader(BOOK_LOADER);
+        if (loader != null) {
+            ((BookLoader) loader).setProgressListener(null);
+        }
+    }
+
+    /**
+     * Start a new search, for the search value in the arguments or the query of the search view
+     */
+    public void restartLoader(Bundle args) {
+        mRestoredUrl = null;
         mEmptyTextView.setVisibility(GONE);
         mProgressBar.setVisibility(View.VISIBLE);
-        getLoaderManager().restartLoader(BOOK_LOADER, null, BookActivity.this);
+        // The pages of the previous search are no longer needed
+        mPager.reset();
+        getLoaderManager().destroyLoader(PAGE_LOADER);
+        getLoaderManager().restartLoader(BOOK_LOADER, args, BookActivity.this);
+    }
+
+    /**
+     * Request the next page of the current search, unless one is already in flight
+     */
+    private void loadNextPage() {
+        String pageUrl = mPager.requestNextPage();
+        if (pageUrl == null) {
+            return;
+        }
+        Bundle args = new Bundle();
+        args.putString(ARG_PAGE_URL, pageUrl);
+        getLoaderManager().restartLoader(PAGE_LOADER, args, this);
     }
 }
@@ -13,64 +13,213 @@
 
 package com.deepankmehta.booklistingapp;
 
-import android.app.Activity;
-import android.util.Log;
+import android.content.Context;
+import android.support.v7.recyclerview.extensions.AsyncListDiffer;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.ArrayAdapter;
+import android.widget.ImageView;
 import android.widget.TextView;
 
-import java.text.DecimalFormat;
-import java.util.ArrayList;
+import com.deepankmehta.booklistingapp.core.Book;
+import com.deepankmehta.booklistingapp.core.BookMetrics;
 
-public class BookAdapter extends ArrayAdapter<Book> {
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
-    private static final String LOG_TAG = BookAdapter.class.getSimpleName();
+public class BookAdapter extends RecyclerView.Adapter<BookAdapter.BookViewHolder> {
 
-    public BookAdapter(Activity context, ArrayList<Book> Books) {
-        super(context, 0, Books);
+    /**
+     * Called when a row within the prefetch distance of the end of the list is shown
+     */
+    public interface OnLoadMoreListener {
+        void onLoadMore();
     }
 
-    @Override
-    public View getView(int position, View convertView, ViewGroup parent) {
+    /**
+     * Called when the user clicks on a row
+     */
+    public interface OnBookClickListener {
+        void onBookClick(Book book);
+
         /**
-         * Check if the existing view is reused, otherwise inflate the view
+         * Called when the user long clicks on a row
          */
-        View listItemView = convertView;
-        if (listItemView == null) {
-            listItemView = LayoutInflater.from(getContext()).inflate(
-                    R.layout.list_item, parent, false);
+        void onBookLongClick(BookRow row);
+    }
+
+    /**
+     * Two rows are the same book if they have the same volume, and need to be
+     * bound again only if one of the shown texts changed
+     */
+    private static final DiffUtil.ItemCallback<BookRow> DIFF_CALLBACK = new DiffUtil.ItemCallback<BookRow>() {
+        @Override
+        public boolean areItemsTheSame(BookRow oldRow, BookRow newRow) {
+            return oldRow.getStableId() == newRow.getStableId();
         }
 
-        final Book currentBook = getItem(position);
-        Log.i(LOG_TAG, "Item position: " + position);
+        @Override
+        public boolean areContentsTheSame(BookRow oldRow, BookRow newRow) {
+            return oldRow.hasSameContents(newRow);
+        }
+    };
 
-        /**
-         * Find the text view in list_item
-         */
-        TextView titleTextView = (TextView) listItemView.findViewById(R.id.title);
-        TextView authorTextView = (TextView) listItemView.findViewById(R.id.author);
-        TextView priceTextView = (TextView) listItemView.findViewById(R.id.price);
-        TextView languageView = (TextView) listItemView.findViewById(R.id.language);
-        TextView currencyView = (TextView) listItemView.findViewById(R.id.currency);
+    private final LayoutInflater mInflater;
+    private final ThumbnailLoader mThumbnailLoader;
+
+    /**
+     * Computes the differences between the shown list and a new one on a background thread
+     */
+    private final AsyncListDiffer<BookRow> mDiffer;
+
+    /**
+     * Last list submitted to the differ, which may not be shown yet
+     */
+    private List<BookRow> mRows = Collections.emptyList();
+
+    private OnLoadMoreListener mLoadMoreListener;
+    private int mPrefetchDistance;
+    private OnBookClickListener mBookClickListener;
+
+    public BookAdapter(Context context) {
+        mInflater = LayoutInflater.from(context);
+        mThumbnailLoader = ThumbnailLoader.getInstance(context);
+        mDiffer = new AsyncListDiffer<>(this, DIFF_CALLBACK);
+        setHasStableIds(true);
+    }
+
+    /**
+     * Set the listener that loads the next page when one of the last
+     * prefetchDistance rows is shown
+     */
+    public void setOnLoadMoreListener(OnLoadMoreListener listener, int prefetchDistance) {
+        mLoadMoreListener = listener;
+        mPrefetchDistance = prefetchDistance;
+    }
+
+    public void setOnBookClickListener(OnBookClickListener listener) {
+        mBookClickListener = listener;
+    }
+
+    /**
+     * Replace the rows, only the ones that changed are bound again
+     */
+    public void setRows(List<BookRow> rows) {
+        mRows = rows != null ? new ArrayList<>(rows) : Collections.<BookRow>emptyList();
+        mDiffer.submitList(mRows);
+    }
+
+    /**
+     * Add rows at the end of the list
+     */
+    public void addAll(List<BookRow> rows) {
+        if (rows.isEmpty()) {
+            return;
+        }
+        List<BookRow> newRows = new ArrayList<>(mRows.size() + rows.size());
+        newRows.addAll(mRows);
+        newRows.addAll(rows);
+        mRows = newRows;
+        mDiffer.submitList(mRows);
+    }
+
+    public void clear() {
+        setRows(null);
+    }
+
+    /**
+     * Return the rows of the list, including the ones not shown yet
+     */
+    public List<BookRow> getRows() {
+        return Collections.unmodifiableList(mRows);
+    }
+
+    public BookRow getItem(int position) {
+        return mDiffer.getCurrentList().get(position);
+    }
+
+    @Override
+    public int getItemCount() {
+        return mDiffer.getCurrentList().size();
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return getItem(position).getStableId();
+    }
+
+    @Override
+    public BookViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        final BookViewHolder holder = new BookViewHolder(mInflater.inflate(R.layout.list_item, parent, false));
+        holder.itemView.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                int position = holder.getAdapterPosition();
+                if (mBookClickListener != null && position != RecyclerView.NO_POSITION) {
+                    mBookClickListener.onBookClick(getItem(position).getBook());
+                }
+            }
+        });
+        holder.itemView.setOnLongClickListener(new View.OnLongClickListener() {
+            @Override
+            public boolean onLongClick(View v) {
+                int position = holder.getAdapterPosition();
+                if (mBookClickListener == null || position == RecyclerView.NO_POSITION) {
+                    return false;
+                }
+                mBookClickListener.onBookLongClick(getItem(position));
+                return true;
+            }
+        });
+        return holder;
+    }
 
-        titleTextView.setText(currentBook.getTitle());
-        authorTextView.setText(currentBook.getAuthor());
-        priceTextView.setText(String.valueOf(formatPrice(currentBook.getPrice())));
-        languageView.setText(currentBook.getLanguage());
-        currencyView.setText(currentBook.getCurrency());
+    @Override
+    public void onBindViewHolder(BookViewHolder holder, int position) {
+        long startNanos = System.nanoTime();
+        BookRow currentRow = getItem(position);
+
+        // Prefetch the next page before the user reaches the end of the list
+        if (mLoadMoreListener != null && position >= getItemCount() - 1 - mPrefetchDistance) {
+            mLoadMoreListener.onLoadMore();
+        }
 
-        Log.i(LOG_TAG, "List has been created");
-        return listItemView;
+        // The texts were formatted by the loader
+        holder.titleTextView.setText(currentRow.getTitleText());
+        holder.authorTextView.setText(currentRow.getAuthorText());
+        holder.priceTextView.setText(currentRow.getPriceText());
+        holder.languageView.setText(currentRow.getLanguageText());
+        mThumbnailLoader.load(currentRow.getBook().getThumbnailUrl(), holder.thumbnailView);
+        BookMetrics.BIND_TIME.record(BookMetrics.elapsedMicros(startNanos));
+    }
 
+    @Override
+    public void onViewRecycled(BookViewHolder holder) {
+        // The row is off screen, its cover doesn't need to be downloaded or decoded any more
+        mThumbnailLoader.cancel(holder.thumbnailView);
     }
 
     /**
-     * Price format method
+     * Keeps the views of a row, so they are only looked up when the row is created
      */
-    private String formatPrice(double price) {
-        DecimalFormat priceFormat = new DecimalFormat("0.00");
-        return priceFormat.format(price);
+    static final class BookViewHolder extends RecyclerView.ViewHolder {
+
+        final TextView titleTextView;
+        final TextView authorTextView;
+        final TextView priceTextView;
+        final TextView languageView;
+        final ImageView thumbnailView;
+
+        BookViewHolder(View itemView) {
+            super(itemView);
+            titleTextView = (TextView) itemView.findViewById(R.id.title);
+            authorTextView = (TextView) itemView.findViewById(R.id.author);
+            priceTextView = (TextView) itemView.findViewById(R.id.price);
+            languageView = (TextView) itemView.findViewById(R.id.language);
+            thumbnailView = (ImageView) itemView.findViewById(R.id.thumbnail);
+        }
     }
 }
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2018 Deepank Mehta. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * You may not use this file; except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * Distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * Limitations under the License.
+ */
+
+package com.deepankmehta.booklistingapp;
+
+import android.app.Application;
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.AsyncTask;
+import android.os.Trace;
+
+import com.deepankmehta.booklistingapp.core.BookClient;
+import com.deepankmehta.booklistingapp.core.BookLog;
+import com.deepankmehta.booklistingapp.core.BookResponseCache;
+
+import java.io.File;
+
+public class BookApplication extends Application {
+
+    /**
+     * Size budget and time to live of the cached responses
+     */
+    private static final long HTTP_CACHE_SIZE = 5 * 1024 * 1024;
+    private static final long HTTP_CACHE_TTL = 10 * 60 * 1000;
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        StartupTrace.onApplicationCreate();
+        Trace.beginSection("BookApplication.onCreate");
+        try {
+            // The core classes log through android.util.Log
+            BookLog.setLogger(new AndroidLogger());
+
+            // Resolve the API host and connect to it while the first activity is inflated
+            if (isConnected()) {
+                AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        BookClient.preconnect(BookClient.DEFAULT_ENDPOINT);
+                    }
+                });
+            }
+
+            // Responses of repeated searches are served from the disk cache
+            BookResponseCache.install(new File(getCacheDir(), "responses"), HTTP_CACHE_SIZE, HTTP_CACHE_TTL);
+        } finally {
+            Trace.endSection();
+        }
+    }
+
+    private boolean isConnected() {
+        ConnectivityManager connectivityManager = (ConnectivityManager) getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo activeNetwork = connectivityManager.getActiveNetworkInfo();
+        return activeNetwork != null && activeNetwork.isConnected();
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        BookListCache.onTrimMemory(level);
+        ThumbnailLoader.onTrimMemory(level);
+    }
+}
@@ -0,0 +1,390 @@
+/*
+ * Copyright 2018 Deepank Mehta. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * You may not use this file; except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * Distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * Limitations under the License.
+ */
+
+package com.deepankmehta.booklistingapp;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import com.deepankmehta.booklistingapp.core.Book;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Local store of every book the app has loaded, with a full text index on
+ * title and author so searches can be answered without the network,
+ * and of the watchlist of books whose price is followed
+ */
+final class BookCatalog extends SQLiteOpenHelper {
+
+    // Tag for the log messages
+    private static final String LOG_TAG = BookCatalog.class.getSimpleName();
+
+    private static final String DATABASE_NAME = "catalog.db";
+    private static final int DATABASE_VERSION = 4;
+
+    /**
+     * Tables and columns
+     */
+    private static final String TABLE_BOOKS = "books";
+    private static final String TABLE_BOOKS_FTS = "books_fts";
+    private static final String COLUMN_VOLUME_ID = "volume_id";
+    private static final String COLUMN_TITLE = "title";
+    private static final String COLUMN_AUTHOR = "author";
+    private static final String COLUMN_PRICE = "price";
+    private static final String COLUMN_CURRENCY = "currency";
+    private static final String COLUMN_LANGUAGE = "language";
+    private static final String COLUMN_BUY_LINK = "buy_link";
+    private static final String COLUMN_THUMBNAIL_URL = "thumbnail_url";
+    private static final String COLUMN_UPDATED_AT = "updated_at";
+    private static final String TABLE_WATCHLIST = "watchlist";
+    private static final String COLUMN_QUERY = "query";
+    private static final String COLUMN_START_INDEX = "start_index";
+    private static final String COLUMN_PRICE_MINOR_UNITS = "price_minor_units";
+    private static final String COLUMN_CHECKED_AT = "checked_at";
+
+    private static BookCatalog sInstance;
+
+    /**
+     * Writes run one batch after the other, away from the loader threads
+     */
+    private final Executor mWriteExecutor = Executors.newSingleThreadExecutor();
+
+    private BookCatalog(Context context) {
+        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        // Searches can run while a batch is being written
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    static synchronized BookCatalog getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new BookCatalog(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_BOOKS + " ("
+                + COLUMN_VOLUME_ID + " TEXT PRIMARY KEY NOT NULL, "
+                + COLUMN_TITLE + " TEXT NOT NULL, "
+                + COLUMN_AUTHOR + " TEXT, "
+                + COLUMN_PRICE + " REAL, "
+                + COLUMN_CURRENCY + " TEXT, "
+                + COLUMN_LANGUAGE + " TEXT, "
+                + COLUMN_BUY_LINK + " TEXT, "
+                + COLUMN_UPDATED_AT + " INTEGER, "
+                + COLUMN_THUMBNAIL_URL + " TEXT)");
+
+        // External content index, kept in sync with the books table by the triggers
+        db.execSQL("CREATE VIRTUAL TABLE " + TABLE_BOOKS_FTS + " USING fts4(content=\"" + TABLE_BOOKS + "\", "
+                + COLUMN_TITLE + ", " + COLUMN_AUTHOR + ")");
+        db.execSQL("CREATE TRIGGER books_after_insert AFTER INSERT ON " + TABLE_BOOKS + " BEGIN "
+                + "INSERT INTO " + TABLE_BOOKS_FTS + "(docid, " + COLUMN_TITLE + ", " + COLUMN_AUTHOR + ") "
+                + "VALUES (new.rowid, new." + COLUMN_TITLE + ", new." + COLUMN_AUTHOR + "); END");
+        db.execSQL("CREATE TRIGGER books_before_update BEFORE UPDATE ON " + TABLE_BOOKS + " BEGIN "
+                + "DELETE FROM " + TABLE_BOOKS_FTS + " WHERE docid = old.rowid; END");
+        db.execSQL("CREATE TRIGGER books_after_update AFTER UPDATE ON " + TABLE_BOOKS + " BEGIN "
+                + "INSERT INTO " + TABLE_BOOKS_FTS + "(docid, " + COLUMN_TITLE + ", " + COLUMN_AUTHOR + ") "
+                + "VALUES (new.rowid, new." + COLUMN_TITLE + ", new." + COLUMN_AUTHOR + "); END");
+        db.execSQL("CREATE TRIGGER books_before_delete BEFORE DELETE ON " + TABLE_BOOKS + " BEGIN "
+                + "DELETE FROM " + TABLE_BOOKS_FTS + " WHERE docid = old.rowid; END");
+        createWatchlist(db);
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (oldVersion < 2) {
+            db.execSQL("ALTER TABLE " + TABLE_BOOKS + " ADD COLUMN " + COLUMN_THUMBNAIL_URL + " TEXT");
+        }
+        if (oldVersion < 3) {
+            createWatchlist(db);
+        } else if (oldVersion < 4) {
+            // The books watched before are looked up on the first page of their search
+            db.execSQL("ALTER TABLE " + TABLE_WATCHLIST + " ADD COLUMN " + COLUMN_START_INDEX
+                    + " INTEGER NOT NULL DEFAULT 0");
+        }
+    }
+
+    /**
+     * Watched volumes with the search and the page that had them, and their price when they were last checked
+     */
+    private static void createWatchlist(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_WATCHLIST + " ("
+                + COLUMN_VOLUME_ID + " TEXT PRIMARY KEY NOT NULL, "
+                + COLUMN_TITLE + " TEXT NOT NULL, "
+                + COLUMN_QUERY + " TEXT NOT NULL, "
+                + COLUMN_START_INDEX + " INTEGER NOT NULL DEFAULT 0, "
+                + COLUMN_PRICE_MINOR_UNITS + " INTEGER NOT NULL, "
+                + COLUMN_CURRENCY + " TEXT, "
+                + COLUMN_CHECKED_AT + " INTEGER NOT NULL)");
+    }
+
+    /**
+     * Store the books in the background, in a single transaction
+     */
+    void saveBooksAsync(final List<Book> books) {
+        if (books == null || books.isEmpty()) {
+            return;
+        }
+        mWriteExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                saveBooks(books);
+            }
+        });
+    }
+
+    /**
+     * Store the books in a single transaction, replacing the stored copy of each volume
+     */
+    void saveBooks(List<Book> books) {
+        long now = System.currentTimeMillis();
+        try {
+            SQLiteDatabase db = getWritableDatabase();
+            SQLiteStatement update = db.compileStatement("UPDATE " + TABLE_BOOKS + " SET "
+                    + COLUMN_TITLE + " = ?, " + COLUMN_AUTHOR + " = ?, " + COLUMN_PRICE + " = ?, "
+                    + COLUMN_CURRENCY + " = ?, " + COLUMN_LANGUAGE + " = ?, " + COLUMN_BUY_LINK + " = ?, "
+                    + COLUMN_UPDATED_AT + " = ?, " + COLUMN_THUMBNAIL_URL + " = ? WHERE " + COLUMN_VOLUME_ID + " = ?");
+            SQLiteStatement insert = db.compileStatement("INSERT INTO " + TABLE_BOOKS + " ("
+                    + COLUMN_TITLE + ", " + COLUMN_AUTHOR + ", " + COLUMN_PRICE + ", "
+                    + COLUMN_CURRENCY + ", " + COLUMN_LANGUAGE + ", " + COLUMN_BUY_LINK + ", "
+                    + COLUMN_UPDATED_AT + ", " + COLUMN_THUMBNAIL_URL + ", " + COLUMN_VOLUME_ID
+                    + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)");
+            db.beginTransaction();
+            try {
+                for (Book book : books) {
+                    // Books without a volume id can't be told apart
+                    if (book.getVolumeId() == null) {
+                        continue;
+                    }
+                    bindBook(update, book, now);
+                    if (update.executeUpdateDelete() == 0) {
+                        bindBook(insert, book, now);
+                        insert.executeInsert();
+                    }
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+                update.close();
+                insert.close();
+            }
+        } catch (SQLiteException e) {
+            Log.e(LOG_TAG, "Problem saving the books", e);
+        }
+    }
+
+    /**
+     * Return the stored books whose title or author contain words starting
+     * with every word of the search value
+     */
+    List<Book> search(String searchValue, int limit) {
+        List<Book> books = new ArrayList<>();
+        String match = matchExpression(searchValue);
+        if (match == null) {
+            return books;
+        }
+        try {
+            Cursor cursor = getReadableDatabase().rawQuery("SELECT b." + COLUMN_VOLUME_ID + ", b." + COLUMN_TITLE
+                    + ", b." + COLUMN_AUTHOR + ", b." + COLUMN_PRICE + ", b." + COLUMN_CURRENCY
+                    + ", b." + COLUMN_LANGUAGE + ", b." + COLUMN_BUY_LINK + ", b." + COLUMN_THUMBNAIL_URL
+                    + " FROM " + TABLE_BOOKS + " b JOIN " + TABLE_BOOKS_FTS + " f ON b.rowid = f.docid"
+                    + " WHERE " + TABLE_BOOKS_FTS + " MATCH ? LIMIT " + limit, new String[]{match});
+            try {
+                while (cursor.moveToNext()) {
+                    books.add(new Book(cursor.getString(0), cursor.getString(1), cursor.getString(2),
+                            cursor.getDouble(3), cursor.getString(4), cursor.getString(5), cursor.getString(6),
+                            cursor.getString(7)));
+                }
+            } finally {
+                cursor.close();
+            }
+        } catch (SQLiteException e) {
+            Log.e(LOG_TAG, "Problem searching the books", e);
+        }
+        return books;
+    }
+
+    /**
+     * Return the titles and authors of the books stored most recently, at most limit of them
+     */
+    List<Book> recentBooks(int limit) {
+        List<Book> books = new ArrayList<>();
+        try {
+            Cursor cursor = getReadableDatabase().rawQuery("SELECT " + COLUMN_VOLUME_ID + ", " + COLUMN_TITLE
+                    + ", " + COLUMN_AUTHOR + " FROM " + TABLE_BOOKS + " ORDER BY " + COLUMN_UPDATED_AT
+                    + " DESC LIMIT " + limit, null);
+            try {
+                while (cursor.moveToNext()) {
+                    books.add(new Book(cursor.getString(0), cursor.getString(1), cursor.getString(2),
+                            0, null, null, null, null));
+                }
+            } finally {
+                cursor.close();
+            }
+        } catch (SQLiteException e) {
+            Log.e(LOG_TAG, "Problem reading the books", e);
+        }
+        return books;
+    }
+
+    /**
+     * Watch the price of the book, found on the page of the search value starting at startIndex,
+     * or stop watching it if it was watched.
+     * Return true if the book is now watched.
+     */
+    boolean toggleWatch(Book book, String query, int startIndex) {
+        if (book.getVolumeId() == null) {
+            return false;
+        }
+        try {
+            SQLiteDatabase db = getWritableDatabase();
+            if (db.delete(TABLE_WATCHLIST, COLUMN_VOLUME_ID + " = ?", new String[]{book.getVolumeId()}) > 0) {
+                return false;
+            }
+            ContentValues values = new ContentValues();
+            values.put(COLUMN_VOLUME_ID, book.getVolumeId());
+            values.put(COLUMN_TITLE, book.getTitle());
+            values.put(COLUMN_QUERY, query);
+            values.put(COLUMN_START_INDEX, startIndex);
+            values.put(COLUMN_PRICE_MINOR_UNITS, book.getPriceHundredths());
+            values.put(COLUMN_CURRENCY, book.getCurrency());
+            values.put(COLUMN_CHECKED_AT, System.currentTimeMillis());
+            return db.insert(TABLE_WATCHLIST, null, values) != -1;
+        } catch (SQLiteException e) {
+            Log.e(LOG_TAG, "Problem updating the watchlist", e);
+            return false;
+        }
+    }
+
+    /**
+     * Return the watched books, the ones checked longest ago first
+     */
+    List<WatchedBook> watchedBooks() {
+        List<WatchedBook> watchedBooks = new ArrayList<>();
+        try {
+            Cursor cursor = getReadableDatabase().rawQuery("SELECT " + COLUMN_VOLUME_ID + ", " + COLUMN_TITLE
+                    + ", " + COLUMN_QUERY + ", " + COLUMN_START_INDEX + ", " + COLUMN_PRICE_MINOR_UNITS
+                    + ", " + COLUMN_CURRENCY + " FROM " + TABLE_WATCHLIST + " ORDER BY " + COLUMN_CHECKED_AT, null);
+            try {
+                while (cursor.moveToNext()) {
+                    watchedBooks.add(new WatchedBook(cursor.getString(0), cursor.getString(1), cursor.getString(2),
+                            cursor.getInt(3), cursor.getLong(4), cursor.getString(5)));
+                }
+            } finally {
+                cursor.close();
+            }
+        } catch (SQLiteException e) {
+            Log.e(LOG_TAG, "Problem reading the watchlist", e);
+        }
+        return watchedBooks;
+    }
+
+    /**
+     * Record that the watched volume was checked, with its current copy if its page had it
+     */
+    void updateWatch(String volumeId, Book book, long checkedAt) {
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_CHECKED_AT, checkedAt);
+        if (book != null) {
+            values.put(COLUMN_PRICE_MINOR_UNITS, book.getPriceHundredths());
+            values.put(COLUMN_CURRENCY, book.getCurrency());
+        }
+        try {
+            getWritableDatabase().update(TABLE_WATCHLIST, values, COLUMN_VOLUME_ID + " = ?", new String[]{volumeId});
+        } catch (SQLiteException e) {
+            Log.e(LOG_TAG, "Problem updating the watchlist", e);
+        }
+    }
+
+    private static void bindBook(SQLiteStatement statement, Book book, long now) {
+        statement.clearBindings();
+        statement.bindString(1, book.getTitle());
+        bindStringOrNull(statement, 2, book.getAuthorNames());
+        statement.bindDouble(3, book.getPrice());
+        bindStringOrNull(statement, 4, book.getCurrency());
+        bindStringOrNull(statement, 5, book.getLanguage());
+        bindStringOrNull(statement, 6, book.getUrl());
+        statement.bindLong(7, now);
+        bindStringOrNull(statement, 8, book.getThumbnailUrl());
+        statement.bindString(9, book.getVolumeId());
+    }
+
+    private static void bindStringOrNull(SQLiteStatement statement, int index, String value) {
+        if (value != null) {
+            statement.bindString(index, value);
+        } else {
+            statement.bindNull(index);
+        }
+    }
+
+    /**
+     * Return an FTS expression matching every word of the search value as a prefix, or null if there is none
+     */
+    private static String matchExpression(String searchValue) {
+        if (searchValue == null) {
+            return null;
+        }
+        StringBuilder match = new StringBuilder();
+        for (String word : searchValue.toLowerCase(Locale.getDefault()).split("[^\\p{L}\\p{N}]+")) {
+            if (!word.isEmpty()) {
+                if (match.length() > 0) {
+                    match.append(' ');
+                }
+                match.append(word).append('*');
+            }
+        }
+        return match.length() > 0 ? match.toString() : null;
+    }
+
+    /**
+     * A book of the watchlist
+     */
+    static final class WatchedBook {
+        final String volumeId;
+        final String title;
+
+        /**
+         * Search value and start index of the page that had the book when it was watched
+         */
+        final String query;
+        final int startIndex;
+
+        /**
+         * Price when the book was last checked
+         */
+        final long priceHundredths;
+        final String currency;
+
+        WatchedBook(String volumeId, String title, String query, int startIndex, long priceHundredths,
+                    String currency) {
+            this.volumeId = volumeId;
+            this.title = title;
+            this.query = query;
+            this.startIndex = startIndex;
+            this.priceHundredths = priceHundredths;
+            this.currency = currency;
+        }
+    }
+}
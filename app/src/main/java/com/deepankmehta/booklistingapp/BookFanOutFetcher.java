@@ -0,0 +1,214 @@
+/*
+ * Copyright 2018 Deepank Mehta. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * You may not use this file; except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * Distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * Limitations under the License.
+ */
+
+package com.deepankmehta.booklistingapp;
+
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
+import android.util.Log;
+
+import com.deepankmehta.booklistingapp.core.Book;
+import com.deepankmehta.booklistingapp.core.BookList;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fetches several pages of a search in parallel and merges them back in order
+ */
+final class BookFanOutFetcher {
+
+    // Tag for the log messages
+    private static final String LOG_TAG = BookFanOutFetcher.class.getSimpleName();
+
+    /**
+     * Upper limit of page requests in flight across all fan-outs
+     */
+    private static final int MAX_THREADS = 8;
+
+    private static final ThreadPoolExecutor sExecutor = new ThreadPoolExecutor(MAX_THREADS, MAX_THREADS,
+            30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+
+    static {
+        sExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    private BookFanOutFetcher() {
+    }
+
+    /**
+     * Fetch pageCount pages of the search starting with the given first page URL, with at most
+     * concurrency requests in flight. Pages are merged in startIndex order and duplicate volumes dropped.
+     * If the deadline passes, the pages that arrived are returned and the others cancelled,
+     * and the result tells the first page that is missing.
+     */
+    static Result fetchPages(String firstPageUrl, int pageCount, int concurrency, long deadlineMillis,
+                             CancellationSignal cancellationSignal) {
+        CompletionService<Integer> completionService = new ExecutorCompletionService<>(sExecutor);
+        final BookList[] pages = new BookList[pageCount];
+        final CancellationSignal[] pageSignals = new CancellationSignal[pageCount];
+        List<Future<Integer>> futures = new ArrayList<>(pageCount);
+
+        long deadline = System.currentTimeMillis() + deadlineMillis;
+        int submitted = 0;
+        int completed = 0;
+
+        // Cancelling the fan-out cancels every page, which wakes up the wait below
+        cancellationSignal.setOnCancelListener(new CancellationSignal.OnCancelListener() {
+            @Override
+            public void onCancel() {
+                cancelPages(pageSignals);
+            }
+        });
+        try {
+            // Keep at most concurrency pages in flight, and submit the next page whenever one completes
+            while (submitted < Math.min(concurrency, pageCount)) {
+                futures.add(submitPage(completionService, firstPageUrl, submitted, pages, pageSignals));
+                submitted++;
+            }
+            while (completed < submitted) {
+                cancellationSignal.throwIfCanceled();
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    Log.w(LOG_TAG, "Deadline passed with " + completed + " of " + pageCount + " pages");
+                    break;
+                }
+                Future<Integer> future = completionService.poll(remaining, TimeUnit.MILLISECONDS);
+                if (future == null) {
+                    continue;
+                }
+                completed++;
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    Log.e(LOG_TAG, "Problem fetching a page", e.getCause());
+                }
+                if (submitted < pageCount) {
+                    futures.add(submitPage(completionService, firstPageUrl, submitted, pages, pageSignals));
+                    submitted++;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new OperationCanceledException();
+        } finally {
+            cancellationSignal.setOnCancelListener(null);
+            // Stop the pages still in flight, the deadline passed or the fan-out was cancelled
+            for (Future<Integer> future : futures) {
+                future.cancel(false);
+            }
+            cancelPages(pageSignals);
+        }
+        cancellationSignal.throwIfCanceled();
+
+        synchronized (pages) {
+            int firstMissingPage = 0;
+            while (firstMissingPage < pageCount && pages[firstMissingPage] != null) {
+                firstMissingPage++;
+            }
+            return merge(pages, BookPager.pageSizeOf(firstPageUrl), firstMissingPage);
+        }
+    }
+
+    private static void cancelPages(CancellationSignal[] pageSignals) {
+        synchronized (pageSignals) {
+            for (CancellationSignal pageSignal : pageSignals) {
+                if (pageSignal != null) {
+                    pageSignal.cancel();
+                }
+            }
+        }
+    }
+
+    private static Future<Integer> submitPage(CompletionService<Integer> completionService, final String firstPageUrl,
+                                              final int page, final BookList[] pages,
+                                              final CancellationSignal[] pageSignals) {
+        final CancellationSignal pageSignal = new CancellationSignal();
+        synchronized (pageSignals) {
+            pageSignals[page] = pageSignal;
+        }
+        return completionService.submit(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                String pageUrl = BookPager.pageUrl(firstPageUrl, page * BookPager.pageSizeOf(firstPageUrl));
+                BookList books = BookRequestCoalescer.fetch(pageUrl, null, pageSignal);
+                synchronized (pages) {
+                    pages[page] = books;
+                }
+                return page;
+            }
+        });
+    }
+
+    /**
+     * Concatenate the pages that arrived in order, dropping volumes already seen, with the startIndex
+     * of the page of each book. The books are null if no page arrived, and the item count is the one
+     * of all the pages.
+     */
+    private static Result merge(BookList[] pages, int pageSize, int firstMissingPage) {
+        BookList books = new BookList();
+        List<Integer> startIndexes = new ArrayList<>();
+        Set<String> volumeIds = new HashSet<>();
+        boolean anyPage = false;
+        int itemCount = 0;
+        synchronized (pages) {
+            for (int i = 0; i < pages.length; i++) {
+                BookList page = pages[i];
+                if (page == null) {
+                    continue;
+                }
+                anyPage = true;
+                itemCount += page.getItemCount();
+                for (Book book : page) {
+                    if (book.getVolumeId() == null || volumeIds.add(book.getVolumeId())) {
+                        books.add(book);
+                        startIndexes.add(i * pageSize);
+                    }
+                }
+            }
+        }
+        // Like a single request, return no books if nothing could be fetched
+        books.setItemCount(itemCount);
+        int[] bookStartIndexes = new int[startIndexes.size()];
+        for (int i = 0; i < bookStartIndexes.length; i++) {
+            bookStartIndexes[i] = startIndexes.get(i);
+        }
+        return new Result(anyPage ? books : null, bookStartIndexes, firstMissingPage);
+    }
+
+    /**
+     * Books of the pages that arrived with the startIndex of the page of each one,
+     * and the index of the first page that didn't arrive, pageCount if they all did
+     */
+    static final class Result {
+        final BookList books;
+        final int[] startIndexes;
+        final int firstMissingPage;
+
+        Result(BookList books, int[] startIndexes, int firstMissingPage) {
+            this.books = books;
+            this.startIndexes = startIndexes;
+            this.firstMissingPage = firstMissingPage;
+        }
+    }
+}
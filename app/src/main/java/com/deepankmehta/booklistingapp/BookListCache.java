@@ -0,0 +1,152 @@
+/*
+ * Copyright 2018 Deepank Mehta. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * You may not use this file; except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * Distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * Limitations under the License.
+ */
+
+package com.deepankmehta.booklistingapp;
+
+import android.content.ComponentCallbacks2;
+import android.util.LruCache;
+
+import com.deepankmehta.booklistingapp.core.Book;
+import com.deepankmehta.booklistingapp.core.BookResponseCache;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Process wide cache of the rows of recent searches, keyed by the normalized
+ * request URL and bounded by the estimated heap size of the rows
+ */
+final class BookListCache {
+
+    /**
+     * Estimated heap size of a book and of a row without their strings,
+     * and of a string without its characters
+     */
+    private static final int BOOK_OVERHEAD = 40;
+    private static final int ROW_OVERHEAD = 40;
+    private static final int STRING_OVERHEAD = 40;
+
+    /**
+     * Part of the heap the cache may use, and an upper limit in bytes
+     */
+    private static final int HEAP_FRACTION = 32;
+    private static final int MAX_SIZE = 4 * 1024 * 1024;
+
+    private static final LruCache<String, Entry> sCache =
+            new LruCache<String, Entry>(maxSize()) {
+                @Override
+                protected int sizeOf(String key, Entry entry) {
+                    return estimateSize(entry.rows);
+                }
+            };
+
+    private BookListCache() {
+    }
+
+    /**
+     * Return the rows of the given request URL, or null if they aren't cached
+     */
+    static Entry get(String url) {
+        String key = normalizedKey(url);
+        return key != null ? sCache.get(key) : null;
+    }
+
+    /**
+     * Cache the rows of the given request URL, and the number of items of its responses,
+     * and return the list that was cached
+     */
+    static List<BookRow> put(String url, List<BookRow> rows, int itemCount) {
+        List<BookRow> cachedRows = Collections.unmodifiableList(rows);
+        String key = normalizedKey(url);
+        if (key != null) {
+            sCache.put(key, new Entry(cachedRows, itemCount));
+        }
+        return cachedRows;
+    }
+
+    /**
+     * Release memory when the system asks for it
+     */
+    static void onTrimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            sCache.evictAll();
+        } else if (level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            sCache.trimToSize(sCache.maxSize() / 2);
+        }
+        // TRIM_MEMORY_UI_HIDDEN and TRIM_MEMORY_BACKGROUND keep the results,
+        // the user coming back to the app sees them without any I/O
+    }
+
+    /**
+     * Return the key of a request URL, the canonical URL in lower case with
+     * repeated separators in the search value collapsed
+     */
+    static String normalizedKey(String url) {
+        if (url == null) {
+            return null;
+        }
+        try {
+            String key = BookResponseCache.canonicalKey(new URL(url));
+            return key.toLowerCase(Locale.US).replaceAll("\\+{2,}", "+");
+        } catch (MalformedURLException e) {
+            return null;
+        }
+    }
+
+    private static int maxSize() {
+        return (int) Math.min(MAX_SIZE, Runtime.getRuntime().maxMemory() / HEAP_FRACTION);
+    }
+
+    /**
+     * Return an estimate of the heap used by the rows and their books, in bytes
+     */
+    private static int estimateSize(List<BookRow> rows) {
+        int size = BOOK_OVERHEAD;
+        for (BookRow row : rows) {
+            Book book = row.getBook();
+            // Currency and language codes are shared between books
+            size += BOOK_OVERHEAD
+                    + sizeOf(book.getVolumeId())
+                    + sizeOf(book.getTitle())
+                    + sizeOf(book.getAuthorNames())
+                    + sizeOf(book.getUrl())
+                    + sizeOf(book.getThumbnailUrl())
+                    + ROW_OVERHEAD
+                    + sizeOf(row.getAuthorText())
+                    + sizeOf(row.getPriceText())
+                    + sizeOf(row.getLanguageText());
+        }
+        return size;
+    }
+
+    private static int sizeOf(String value) {
+        return value != null ? STRING_OVERHEAD + 2 * value.length() : 0;
+    }
+
+    /**
+     * Cached rows of a request, with the number of items of its responses, shown or not
+     */
+    static final class Entry {
+        final List<BookRow> rows;
+        final int itemCount;
+
+        Entry(List<BookRow> rows, int itemCount) {
+            this.rows = rows;
+            this.itemCount = itemCount;
+        }
+    }
+}
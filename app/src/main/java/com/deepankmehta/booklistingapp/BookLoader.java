@@ -15,46 +15,378 @@ package com.deepankmehta.booklistingapp;
 
 import android.content.AsyncTaskLoader;
 import android.content.Context;
-import android.util.Log;
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.OperationCanceledException;
+import android.os.SystemClock;
 
+import com.deepankmehta.booklistingapp.core.Book;
+import com.deepankmehta.booklistingapp.core.BookList;
+import com.deepankmehta.booklistingapp.core.BookMetrics;
+import com.deepankmehta.booklistingapp.core.BookStreamParser;
+
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
-public class BookLoader extends AsyncTaskLoader<List<Book>> {
+/**
+ * Loads the books of a search and delivers them as rows ready to be shown,
+ * formatted on the loader thread
+ */
+public class BookLoader extends AsyncTaskLoader<List<BookRow>> {
 
     /**
-     * Tag for log messages
+     * Number of books in the first batch, kept small so the first rows show up quickly
      */
-    private static final String LOG_TAG = BookLoader.class.getName();
+    private static final int FIRST_BATCH_SIZE = 4;
+
+    /**
+     * Maximum number of books and time between two batches after the first one
+     */
+    private static final int BATCH_SIZE = 10;
+    private static final long BATCH_INTERVAL_MS = 100;
+
+    /**
+     * Page requests in flight and time limit of a multi-page load
+     */
+    private static final int FAN_OUT_CONCURRENCY = 4;
+    private static final long FAN_OUT_DEADLINE_MS = 15000;
+
+    /**
+     * Receives the rows on the main thread while the response is still being parsed
+     */
+    public interface ProgressListener {
+        /**
+         * @param loader     the loader that parsed the books
+         * @param rows       rows of the books parsed since the previous batch
+         * @param firstBatch true for the first batch of a load, the old results should be replaced
+         */
+        void onBooksParsed(BookLoader loader, List<BookRow> rows, boolean firstBatch);
+
+        /**
+         * Called with the rows of the books of the local catalog that match the search,
+         * before the network results replace them
+         */
+        void onLocalResults(BookLoader loader, List<BookRow> rows);
+    }
 
     /**
      * Variable
      */
     private String newUrl;
+    private final String mSearchValue;
+    private final boolean mOffline;
+    private final int mPageCount;
+
+    /**
+     * startIndex of the page requested by the URL, the first one of a multi-page load
+     */
+    private final int mStartIndex;
+
+    /**
+     * Number of items in the responses of the last load, shown or not, or -1 if it isn't known
+     */
+    private volatile int mItemCount = -1;
+
+    /**
+     * Number of pages of the last load that arrived in a row from the first one
+     */
+    private volatile int mLoadedPageCount;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private volatile ProgressListener mProgressListener;
+
+    /**
+     * Rows delivered last, handed again to a recreated activity or when the activity starts again
+     */
+    private List<BookRow> mRows;
+
+    /**
+     * Signal of the load in progress, cancelling it closes the connection
+     */
+    private CancellationSignal mCancellationSignal;
+
+    /**
+     * Start of the current load, and whether its first rows have been shown, only used on the main thread
+     */
+    private long mStartNanos;
+    private boolean mFirstRowsShown;
 
     /**
      * Constructs a new BookLoader
      */
     public BookLoader(Context context, String url) {
+        this(context, url, null, false, 1);
+    }
+
+    /**
+     * Constructs a new BookLoader that also searches the local catalog for the search value,
+     * and only the local catalog when offline is true.
+     * If pageCount is more than one, that many pages are fetched in parallel starting at the URL.
+     */
+    public BookLoader(Context context, String url, String searchValue, boolean offline, int pageCount) {
         super(context);
         newUrl = url;
-        Log.i(LOG_TAG, "Loaded");
+        mSearchValue = searchValue;
+        mOffline = offline;
+        mPageCount = pageCount;
+        mStartIndex = BookPager.startIndexOf(url);
     }
 
     @Override
     public void onStartLoading() {
+        if (mRows != null) {
+            // Don't load again what has already been delivered, the list may have grown since
+            deliverResult(mRows);
+        }
+        if (!takeContentChanged() && mRows != null) {
+            return;
+        }
+        mStartNanos = System.nanoTime();
+        mFirstRowsShown = false;
+        // Books of a recent search are shown without any I/O
+        BookListCache.Entry cached = BookListCache.get(cacheUrl());
+        if (cached != null) {
+            mItemCount = cached.itemCount;
+            mLoadedPageCount = mPageCount;
+            deliverResult(cached.rows);
+            return;
+        }
         forceLoad();
-        Log.i(LOG_TAG, "Force Load");
     }
 
     @Override
-    public List<Book> loadInBackground() {
+    public void deliverResult(List<BookRow> rows) {
+        if (isReset()) {
+            return;
+        }
+        mRows = rows;
+        if (isStarted()) {
+            super.deliverResult(rows);
+        }
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+        mRows = null;
+    }
+
+    /**
+     * Called on the main thread whenever rows of this loader are handed to the list,
+     * records the time to the first rows of the load
+     */
+    public void onRowsShown() {
+        if (!mFirstRowsShown) {
+            mFirstRowsShown = true;
+            BookMetrics.FIRST_ROW_TIME.record(BookMetrics.elapsedMicros(mStartNanos));
+        }
+    }
+
+    @Override
+    public List<BookRow> loadInBackground() {
         if (newUrl == null) {
             return null;
         }
+        CancellationSignal cancellationSignal;
+        synchronized (this) {
+            if (isLoadInBackgroundCanceled()) {
+                throw new OperationCanceledException();
+            }
+            cancellationSignal = new CancellationSignal();
+            mCancellationSignal = cancellationSignal;
+        }
+        try {
+            return loadBooks(cancellationSignal);
+        } finally {
+            synchronized (this) {
+                mCancellationSignal = null;
+            }
+        }
+    }
+
+    @Override
+    public void cancelLoadInBackground() {
+        super.cancelLoadInBackground();
+        // Tear down the connection of a superseded search instead of letting it time out
+        synchronized (this) {
+            if (mCancellationSignal != null) {
+                mCancellationSignal.cancel();
+            }
+        }
+    }
+
+    private List<BookRow> loadBooks(CancellationSignal cancellationSignal) {
+        mItemCount = -1;
+        mLoadedPageCount = 0;
+        // Another loader may have loaded the same search in the meantime
+        BookListCache.Entry cached = BookListCache.get(cacheUrl());
+        if (cached != null) {
+            mItemCount = cached.itemCount;
+            mLoadedPageCount = mPageCount;
+            return cached.rows;
+        }
+        // Books seen before are shown while the network request is running,
+        // and are all there is without a connection
+        BookCatalog catalog = BookCatalog.getInstance(getContext());
+        List<BookRow> localRows = null;
+        if (mSearchValue != null) {
+            localRows = BookRow.fromBooks(catalog.search(mSearchValue, BookPager.PAGE_SIZE));
+            if (mOffline) {
+                return localRows;
+            }
+            if (!localRows.isEmpty()) {
+                postLocalResults(localRows);
+            }
+        }
+
         // Perform the network request, parse the response
         // and extract a list of books
-        List<Book> books = Utils.fetchBookData(newUrl);
-        Log.i(LOG_TAG, "Loaded in background");
-        return books;
+        BookList books;
+        int loadedPageCount = mPageCount;
+        int[] startIndexes = null;
+        BatchCollector batchCollector = null;
+        if (mPageCount > 1) {
+            // All the pages are requested at once and shown when they have been merged
+            BookFanOutFetcher.Result result = BookFanOutFetcher.fetchPages(newUrl, mPageCount,
+                    FAN_OUT_CONCURRENCY, FAN_OUT_DEADLINE_MS, cancellationSignal);
+            books = result.books;
+            startIndexes = result.startIndexes;
+            loadedPageCount = result.firstMissingPage;
+        } else {
+            // A request already in flight for the same URL is shared rather than repeated
+            batchCollector = new BatchCollector();
+            books = BookRequestCoalescer.fetch(newUrl, batchCollector, cancellationSignal);
+        }
+        cancellationSignal.throwIfCanceled();
+        if (books == null) {
+            // Keep the local results if the request failed
+            return localRows != null && !localRows.isEmpty() ? localRows : null;
+        }
+        catalog.saveBooksAsync(books);
+        BookSuggestions.getInstance(getContext()).addBooksAsync(books);
+        // The rows already posted in batches are reused
+        List<BookRow> rows = startIndexes != null ? BookRow.fromBooks(books, startIndexes)
+                : BookRow.fromBooks(books, batchCollector.mRows, mStartIndex);
+        mLoadedPageCount = loadedPageCount;
+        if (loadedPageCount < mPageCount) {
+            // Some pages didn't arrive before the deadline, the same search has to fetch them again.
+            // Without the first page, the count of the others can't tell the end of the search.
+            mItemCount = loadedPageCount > 0 ? books.getItemCount() : -1;
+            return Collections.unmodifiableList(rows);
+        }
+        mItemCount = books.getItemCount();
+        return BookListCache.put(cacheUrl(), rows, books.getItemCount());
+    }
+
+    /**
+     * Return the URL the books are cached under, a multi-page load isn't the same as its first page
+     */
+    private String cacheUrl() {
+        return mPageCount > 1 ? newUrl + "&pages=" + mPageCount : newUrl;
+    }
+
+    /**
+     * Return the number of pages of the last load that arrived in a row from the first one,
+     * the pages that are missing come after them
+     */
+    public int getLoadedPageCount() {
+        return mLoadedPageCount;
+    }
+
+    /**
+     * Return the number of items in the responses of the last load, including the ones
+     * that can't be shown, or -1 if it isn't known, as for local results
+     */
+    public int getItemCount() {
+        return mItemCount;
+    }
+
+    /**
+     * Return the search value of this loader, null for a page after the first one
+     */
+    public String getSearchValue() {
+        return mSearchValue;
+    }
+
+    /**
+     * Return true if this loader only searches the local catalog
+     */
+    public boolean isOffline() {
+        return mOffline;
+    }
+
+    private void postLocalResults(final List<BookRow> rows) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                ProgressListener listener = mProgressListener;
+                if (listener != null && !isAbandoned() && !isReset()) {
+                    listener.onLocalResults(BookLoader.this, rows);
+                }
+            }
+        });
+    }
+
+    /**
+     * Return the URL requested by this loader
+     */
+    public String getUrl() {
+        return newUrl;
+    }
+
+    /**
+     * Set the listener that receives the books while they are parsed, or null
+     */
+    public void setProgressListener(ProgressListener listener) {
+        mProgressListener = listener;
+    }
+
+    /**
+     * Turns the parsed books into rows, groups them into batches and posts them to the main thread
+     */
+    private class BatchCollector implements BookStreamParser.Listener {
+
+        /**
+         * Every row created so far, in the order of the books
+         */
+        final List<BookRow> mRows = new ArrayList<>();
+        private List<BookRow> mBatch = new ArrayList<>();
+        private boolean mFirstBatch = true;
+        private long mLastPostTime = SystemClock.uptimeMillis();
+
+        @Override
+        public void onBookParsed(Book book) {
+            // Stop parsing as soon as the load is cancelled
+            if (isLoadInBackgroundCanceled()) {
+                throw new OperationCanceledException();
+            }
+            BookRow row = new BookRow(book, mStartIndex);
+            mRows.add(row);
+            mBatch.add(row);
+            int batchSize = mFirstBatch ? FIRST_BATCH_SIZE : BATCH_SIZE;
+            long now = SystemClock.uptimeMillis();
+            if (mBatch.size() >= batchSize || now - mLastPostTime >= BATCH_INTERVAL_MS) {
+                post(mBatch, mFirstBatch);
+                mBatch = new ArrayList<>();
+                mFirstBatch = false;
+                mLastPostTime = now;
+            }
+        }
+
+        private void post(final List<BookRow> batch, final boolean firstBatch) {
+            if (mProgressListener == null) {
+                return;
+            }
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    ProgressListener listener = mProgressListener;
+                    if (listener != null && !isAbandoned() && !isReset()) {
+                        listener.onBooksParsed(BookLoader.this, batch, firstBatch);
+                    }
+                }
+            });
+        }
     }
 }
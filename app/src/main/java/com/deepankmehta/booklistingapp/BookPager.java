@@ -0,0 +1,239 @@
+/*
+ * Copyright 2018 Deepank Mehta. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * You may not use this file; except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * Distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * Limitations under the License.
+ */
+
+package com.deepankmehta.booklistingapp;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Keeps track of the pages of the current search, so that only the next page is
+ * requested, one at a time, and pages that are stale or already shown are dropped.
+ * It is kept across a configuration change with the rows it appended.
+ */
+final class BookPager {
+
+    /**
+     * Number of books requested per page on a fast unmetered network,
+     * the {@link NetworkMonitor} asks for smaller pages on other networks
+     */
+    static final int PAGE_SIZE = 40;
+
+    private static final String MAX_RESULTS_PARAMETER = "&maxResults=";
+    private static final String START_INDEX_PARAMETER = "&startIndex=";
+
+    /**
+     * Pages in a row that may add no new book before the search is considered exhausted,
+     * in case the server keeps returning the same volumes
+     */
+    private static final int MAX_EMPTY_PAGES = 5;
+
+    /**
+     * URL of the first page of the current search
+     */
+    private String mFirstPageUrl;
+
+    /**
+     * Number of books per page of the current search
+     */
+    private int mPageSize = PAGE_SIZE;
+
+    /**
+     * startIndex of the next page to request
+     */
+    private int mNextStartIndex;
+
+    /**
+     * URL of the page in flight, or null if there is none
+     */
+    private String mPendingUrl;
+
+    /**
+     * True until the first page has been loaded, and once a page comes back without any item
+     */
+    private boolean mEndReached = true;
+
+    /**
+     * Pages loaded in a row that added no new book
+     */
+    private int mEmptyPageCount;
+
+    /**
+     * Volume ids already in the list
+     */
+    private final Set<String> mVolumeIds = new HashSet<>();
+
+    /**
+     * Rows of the first pages as they were delivered, and the new rows of the pages appended to them
+     */
+    private List<BookRow> mFirstRows;
+    private final List<BookRow> mPageRows = new ArrayList<>();
+
+    /**
+     * Forget the pages of the previous search
+     */
+    void reset() {
+        mFirstPageUrl = null;
+        mPageSize = PAGE_SIZE;
+        mNextStartIndex = 0;
+        mPendingUrl = null;
+        mEndReached = true;
+        mEmptyPageCount = 0;
+        mVolumeIds.clear();
+        mFirstRows = null;
+        mPageRows.clear();
+    }
+
+    /**
+     * Register the books of the first pages, which are shown without going through the pager.
+     * itemCount is the number of items of their responses, shown or not, or -1 if it isn't known.
+     */
+    void onFirstPagesLoaded(String firstPageUrl, int pageCount, List<BookRow> rows, int itemCount) {
+        mFirstPageUrl = firstPageUrl;
+        mPageSize = pageSizeOf(firstPageUrl);
+        mVolumeIds.clear();
+        mPendingUrl = null;
+        mNextStartIndex = pageCount * mPageSize;
+        mEndReached = isLastPage(rows, itemCount);
+        mEmptyPageCount = 0;
+        mFirstRows = rows;
+        mPageRows.clear();
+        if (rows != null) {
+            for (BookRow row : rows) {
+                if (row.getBook().getVolumeId() != null) {
+                    mVolumeIds.add(row.getBook().getVolumeId());
+                }
+            }
+        }
+    }
+
+    /**
+     * Return true if these rows of the first pages are the ones already registered,
+     * delivered again to a recreated activity
+     */
+    boolean hasFirstPages(String firstPageUrl, List<BookRow> rows) {
+        return rows != null && rows == mFirstRows && firstPageUrl.equals(mFirstPageUrl);
+    }
+
+    /**
+     * Return the rows of the first pages followed by the new rows of the pages appended to them
+     */
+    List<BookRow> getRows() {
+        List<BookRow> rows = new ArrayList<>(mFirstRows.size() + mPageRows.size());
+        rows.addAll(mFirstRows);
+        rows.addAll(mPageRows);
+        return rows;
+    }
+
+    /**
+     * Return the URL of the next page and mark it as in flight,
+     * or null if a page is already in flight or there are no more pages
+     */
+    String requestNextPage() {
+        if (mPendingUrl != null || mEndReached || mFirstPageUrl == null) {
+            return null;
+        }
+        mPendingUrl = pageUrl(mFirstPageUrl, mNextStartIndex);
+        return mPendingUrl;
+    }
+
+    /**
+     * Return the rows of a loaded page that aren't shown yet, or null if the page
+     * isn't the one that was requested last.
+     * An empty list means the page added nothing and the next one can be requested right away.
+     */
+    List<BookRow> onPageLoaded(String url, List<BookRow> rows, int itemCount) {
+        if (mPendingUrl == null || !mPendingUrl.equals(url)) {
+            return null;
+        }
+        mPendingUrl = null;
+
+        // A failed request leaves the startIndex as it is, so the page is requested again
+        if (rows == null) {
+            return null;
+        }
+        mNextStartIndex += mPageSize;
+        // Items without a price are skipped, a page of them isn't the end of the search
+        if (isLastPage(rows, itemCount)) {
+            mEndReached = true;
+        }
+
+        List<BookRow> newRows = new ArrayList<>(rows.size());
+        for (BookRow row : rows) {
+            String volumeId = row.getBook().getVolumeId();
+            if (volumeId == null || mVolumeIds.add(volumeId)) {
+                newRows.add(row);
+            }
+        }
+        mPageRows.addAll(newRows);
+        mEmptyPageCount = newRows.isEmpty() ? mEmptyPageCount + 1 : 0;
+        if (mEmptyPageCount == MAX_EMPTY_PAGES) {
+            mEndReached = true;
+        }
+        return newRows;
+    }
+
+    /**
+     * A response without any item is the last one, the rows only tell when the item count isn't known
+     */
+    private static boolean isLastPage(List<BookRow> rows, int itemCount) {
+        if (itemCount >= 0) {
+            return itemCount == 0;
+        }
+        return rows == null || rows.isEmpty();
+    }
+
+    /**
+     * Return the URL of the page of the search starting at startIndex
+     */
+    static String pageUrl(String firstPageUrl, int startIndex) {
+        return startIndex == 0 ? firstPageUrl : firstPageUrl + START_INDEX_PARAMETER + startIndex;
+    }
+
+    /**
+     * Return the number of books per page requested by the URL of a search
+     */
+    static int pageSizeOf(String url) {
+        return intParameter(url, MAX_RESULTS_PARAMETER, PAGE_SIZE);
+    }
+
+    /**
+     * Return the index of the first book requested by the URL of a page, 0 for the first page
+     */
+    static int startIndexOf(String url) {
+        return intParameter(url, START_INDEX_PARAMETER, 0);
+    }
+
+    /**
+     * Return the number following the parameter in the URL, or the default value if there is none
+     */
+    private static int intParameter(String url, String parameter, int defaultValue) {
+        // The parameters follow the search value, which may contain anything
+        int start = url == null ? -1 : url.lastIndexOf(parameter);
+        if (start < 0) {
+            return defaultValue;
+        }
+        start += parameter.length();
+        int end = start;
+        while (end < url.length() && Character.isDigit(url.charAt(end))) {
+            end++;
+        }
+        try {
+            return Integer.parseInt(url.substring(start, end));
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+}
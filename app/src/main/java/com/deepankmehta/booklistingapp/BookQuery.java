@@ -0,0 +1,89 @@
+/*
+ * Copyright 2018 Deepank Mehta. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * You may not use this file; except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * Distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * Limitations under the License.
+ */
+package com.deepankmehta.booklistingapp;
+
+/**
+ * Order and filters applied to the loaded results by {@link BookQueryEngine}. Immutable.
+ */
+final class BookQuery {
+
+    enum SortOrder {
+        RELEVANCE, PRICE_ASCENDING, PRICE_DESCENDING, TITLE, AUTHOR
+    }
+
+    /**
+     * The results as the API returned them
+     */
+    static final BookQuery DEFAULT = new BookQuery(SortOrder.RELEVANCE, null, null, 0, Long.MAX_VALUE);
+
+    final SortOrder sortOrder;
+
+    /**
+     * Language and currency code the books must have, null for any
+     */
+    final String language;
+    final String currency;
+
+    /**
+     * Inclusive price range, in hundredths of the currency
+     */
+    final long minPriceHundredths;
+    final long maxPriceHundredths;
+
+    private BookQuery(SortOrder sortOrder, String language, String currency, long minPriceHundredths,
+                      long maxPriceHundredths) {
+        this.sortOrder = sortOrder;
+        this.language = language;
+        this.currency = currency;
+        this.minPriceHundredths = minPriceHundredths;
+        this.maxPriceHundredths = maxPriceHundredths;
+    }
+
+    BookQuery withSortOrder(SortOrder sortOrder) {
+        return new BookQuery(sortOrder, language, currency, minPriceHundredths, maxPriceHundredths);
+    }
+
+    BookQuery withLanguage(String language) {
+        return new BookQuery(sortOrder, language, currency, minPriceHundredths, maxPriceHundredths);
+    }
+
+    BookQuery withCurrency(String currency) {
+        return new BookQuery(sortOrder, language, currency, minPriceHundredths, maxPriceHundredths);
+    }
+
+    BookQuery withPriceRange(long minPriceHundredths, long maxPriceHundredths) {
+        return new BookQuery(sortOrder, language, currency, minPriceHundredths, maxPriceHundredths);
+    }
+
+    /**
+     * Return the query with the same order and no filters
+     */
+    BookQuery withoutFilters() {
+        return DEFAULT.withSortOrder(sortOrder);
+    }
+
+    boolean hasPriceRange() {
+        return minPriceHundredths > 0 || maxPriceHundredths < Long.MAX_VALUE;
+    }
+
+    boolean hasFilters() {
+        return language != null || currency != null || hasPriceRange();
+    }
+
+    /**
+     * Return true if the query leaves the results as they are
+     */
+    boolean isDefault() {
+        return sortOrder == SortOrder.RELEVANCE && !hasFilters();
+    }
+}
@@ -0,0 +1,375 @@
+/*
+ * Copyright 2018 Deepank Mehta. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * You may not use this file; except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * Distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * Limitations under the License.
+ */
+package com.deepankmehta.booklistingapp;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.deepankmehta.booklistingapp.core.Book;
+import com.deepankmehta.booklistingapp.core.BookStreamParser;
+
+import java.text.CollationKey;
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Sorts and filters the loaded results on the device, without going back to the network.
+ * The loaded rows are indexed on a background thread as they arrive: collation keys and prices
+ * for the sort orders, and the rows of every language and currency for the filters.
+ * Queries run on the same thread and their rows are handed to the adapter, the first screen first.
+ * With the default query the rows go to the adapter as they are.
+ * All the methods are called on the main thread.
+ */
+final class BookQueryEngine {
+
+    /**
+     * Rows handed to the adapter before the rest of a large result
+     */
+    private static final int FIRST_SCREEN_ROWS = 30;
+
+    /**
+     * Index updates and queries run one after the other, off the main thread
+     */
+    private static final Executor sExecutor = Executors.newSingleThreadExecutor();
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final BookAdapter mAdapter;
+
+    /**
+     * Every loaded row, in the order of the API
+     */
+    private List<BookRow> mRows = Collections.emptyList();
+    private BookQuery mQuery = BookQuery.DEFAULT;
+
+    /**
+     * Incremented by every change, results of an older generation are dropped
+     */
+    private int mGeneration;
+
+    /**
+     * Languages and currencies of the loaded rows, sorted
+     */
+    private List<String> mLanguages = Collections.emptyList();
+    private List<String> mCurrencies = Collections.emptyList();
+
+    /**
+     * Only used on the executor thread
+     */
+    private final Index mIndex = new Index();
+
+    BookQueryEngine(BookAdapter adapter) {
+        mAdapter = adapter;
+    }
+
+    /**
+     * Replace the loaded rows
+     */
+    void setRows(List<BookRow> rows) {
+        mRows = rows != null ? new ArrayList<>(rows) : Collections.<BookRow>emptyList();
+        mGeneration++;
+        if (mQuery.isDefault()) {
+            mAdapter.setRows(mRows);
+        }
+        update(true, mRows);
+    }
+
+    /**
+     * Add rows after the loaded ones
+     */
+    void addAll(List<BookRow> rows) {
+        if (rows.isEmpty()) {
+            return;
+        }
+        List<BookRow> newRows = new ArrayList<>(mRows.size() + rows.size());
+        newRows.addAll(mRows);
+        newRows.addAll(rows);
+        mRows = newRows;
+        mGeneration++;
+        if (mQuery.isDefault()) {
+            mAdapter.addAll(rows);
+        }
+        update(false, new ArrayList<>(rows));
+    }
+
+    void clear() {
+        setRows(null);
+    }
+
+    /**
+     * Return every loaded row, including the ones filtered out
+     */
+    List<BookRow> getRows() {
+        return Collections.unmodifiableList(mRows);
+    }
+
+    BookQuery getQuery() {
+        return mQuery;
+    }
+
+    /**
+     * Apply another order or other filters to the loaded rows
+     */
+    void setQuery(BookQuery query) {
+        mQuery = query;
+        mGeneration++;
+        if (query.isDefault()) {
+            mAdapter.setRows(mRows);
+        }
+        update(false, null);
+    }
+
+    List<String> getLanguages() {
+        return mLanguages;
+    }
+
+    List<String> getCurrencies() {
+        return mCurrencies;
+    }
+
+    /**
+     * Add the rows to the index, or replace it, and run the current query in the background
+     */
+    private void update(final boolean replace, final List<BookRow> rows) {
+        final BookQuery query = mQuery;
+        final int generation = mGeneration;
+        sExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (replace) {
+                    mIndex.clear();
+                }
+                if (rows != null && !rows.isEmpty()) {
+                    mIndex.addAll(rows);
+                }
+                if (replace || rows != null) {
+                    publishFacets(mIndex.values(mIndex.mRowsByLanguage), mIndex.values(mIndex.mRowsByCurrency));
+                }
+                if (!query.isDefault()) {
+                    mIndex.run(query, generation);
+                }
+            }
+        });
+    }
+
+    private void publishFacets(final List<String> languages, final List<String> currencies) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mLanguages = languages;
+                mCurrencies = currencies;
+            }
+        });
+    }
+
+    private void publish(final List<BookRow> rows, final int generation) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                // A newer change is on its way
+                if (generation == mGeneration) {
+                    mAdapter.setRows(rows);
+                }
+            }
+        });
+    }
+
+    /**
+     * Sort keys and filter indexes of the loaded rows. Each row is indexed once, when it arrives.
+     */
+    private final class Index {
+        private final Collator mCollator;
+        private final List<BookRow> mRows = new ArrayList<>();
+        private final List<CollationKey> mTitleKeys = new ArrayList<>();
+        private final List<CollationKey> mAuthorKeys = new ArrayList<>();
+        private long[] mPrices = new long[64];
+
+        /**
+         * Positions of the rows of each language and currency
+         */
+        private final Map<String, BitSet> mRowsByLanguage = new TreeMap<>();
+        private final Map<String, BitSet> mRowsByCurrency = new TreeMap<>();
+
+        /**
+         * Positions of the rows in each sort order, computed when first needed after a change
+         */
+        private final Map<BookQuery.SortOrder, int[]> mOrders = new EnumMap<>(BookQuery.SortOrder.class);
+
+        Index() {
+            // Case and accents only break ties
+            mCollator = Collator.getInstance();
+            mCollator.setStrength(Collator.SECONDARY);
+        }
+
+        void clear() {
+            mRows.clear();
+            mTitleKeys.clear();
+            mAuthorKeys.clear();
+            mRowsByLanguage.clear();
+            mRowsByCurrency.clear();
+            mOrders.clear();
+        }
+
+        void addAll(List<BookRow> rows) {
+            for (BookRow row : rows) {
+                int position = mRows.size();
+                Book book = row.getBook();
+                mRows.add(row);
+                mTitleKeys.add(book.getTitle() != null ? mCollator.getCollationKey(book.getTitle()) : null);
+                mAuthorKeys.add(hasAuthor(book) ? mCollator.getCollationKey(book.getAuthor()) : null);
+                if (position == mPrices.length) {
+                    mPrices = Arrays.copyOf(mPrices, position * 2);
+                }
+                mPrices[position] = book.getPriceHundredths();
+                rowsOf(mRowsByLanguage, book.getLanguage()).set(position);
+                rowsOf(mRowsByCurrency, book.getCurrency()).set(position);
+            }
+            mOrders.clear();
+        }
+
+        List<String> values(Map<String, BitSet> rowsByValue) {
+            List<String> values = new ArrayList<>(rowsByValue.size());
+            for (String value : rowsByValue.keySet()) {
+                if (!value.isEmpty()) {
+                    values.add(value);
+                }
+            }
+            return Collections.unmodifiableList(values);
+        }
+
+        /**
+         * Hand the rows matching the query to the adapter in the query order
+         */
+        void run(BookQuery query, int generation) {
+            BitSet candidates = null;
+            if (query.language != null) {
+                candidates = matching(mRowsByLanguage, query.language, null);
+            }
+            if (query.currency != null) {
+                candidates = matching(mRowsByCurrency, query.currency, candidates);
+            }
+            int[] order = order(query.sortOrder);
+
+            List<BookRow> rows = new ArrayList<>();
+            boolean firstScreenPublished = false;
+            for (int i = 0; i < mRows.size(); i++) {
+                int position = order != null ? order[i] : i;
+                if (candidates != null && !candidates.get(position)) {
+                    continue;
+                }
+                long price = mPrices[position];
+                if (price < query.minPriceHundredths || price > query.maxPriceHundredths) {
+                    continue;
+                }
+                rows.add(mRows.get(position));
+                if (!firstScreenPublished && rows.size() == FIRST_SCREEN_ROWS) {
+                    // Fill the screen while the rest of a large result is collected
+                    publish(new ArrayList<>(rows), generation);
+                    firstScreenPublished = true;
+                }
+            }
+            publish(rows, generation);
+        }
+
+        private BitSet matching(Map<String, BitSet> rowsByValue, String value, BitSet candidates) {
+            BitSet rows = rowsByValue.get(value);
+            BitSet result = rows != null ? (BitSet) rows.clone() : new BitSet();
+            if (candidates != null) {
+                result.and(candidates);
+            }
+            return result;
+        }
+
+        /**
+         * Return the positions of the rows in the sort order, or null for the order of the API
+         */
+        private int[] order(final BookQuery.SortOrder sortOrder) {
+            if (sortOrder == BookQuery.SortOrder.RELEVANCE) {
+                return null;
+            }
+            int[] order = mOrders.get(sortOrder);
+            if (order != null) {
+                return order;
+            }
+            Integer[] positions = new Integer[mRows.size()];
+            for (int i = 0; i < positions.length; i++) {
+                positions[i] = i;
+            }
+            // Stable sort, rows with equal keys keep the order of the API
+            Arrays.sort(positions, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer first, Integer second) {
+                    switch (sortOrder) {
+                        case PRICE_ASCENDING:
+                            return compareLongs(mPrices[first], mPrices[second]);
+                        case PRICE_DESCENDING:
+                            return compareLongs(mPrices[second], mPrices[first]);
+                        case TITLE:
+                            return compareKeys(mTitleKeys.get(first), mTitleKeys.get(second));
+                        default:
+                            return compareKeys(mAuthorKeys.get(first), mAuthorKeys.get(second));
+                    }
+                }
+            });
+            order = new int[positions.length];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = positions[i];
+            }
+            mOrders.put(sortOrder, order);
+            return order;
+        }
+    }
+
+    private static BitSet rowsOf(Map<String, BitSet> rowsByValue, String value) {
+        // Books without a value can't be selected by the filter, they still need a key
+        String key = value != null ? value : "";
+        BitSet rows = rowsByValue.get(key);
+        if (rows == null) {
+            rows = new BitSet();
+            rowsByValue.put(key, rows);
+        }
+        return rows;
+    }
+
+    /**
+     * The placeholders of missing authors are sorted after the real names
+     */
+    private static boolean hasAuthor(Book book) {
+        String author = book.getAuthorNames();
+        return author != null && !author.equals(BookStreamParser.UNKNOWN_AUTHOR)
+                && !author.equals(BookStreamParser.MISSING_AUTHORS);
+    }
+
+    private static int compareLongs(long first, long second) {
+        return first < second ? -1 : (first == second ? 0 : 1);
+    }
+
+    /**
+     * Missing keys go last
+     */
+    private static int compareKeys(CollationKey first, CollationKey second) {
+        if (first == null || second == null) {
+            return first == null ? (second == null ? 0 : 1) : -1;
+        }
+        return first.compareTo(second);
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright 2018 Deepank Mehta. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * You may not use this file; except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * Distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * Limitations under the License.
+ */
+
+package com.deepankmehta.booklistingapp;
+
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
+
+import com.deepankmehta.booklistingapp.core.Book;
+import com.deepankmehta.booklistingapp.core.BookList;
+import com.deepankmehta.booklistingapp.core.BookStreamParser;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Makes concurrent requests for the same URL share a single network request and parse.
+ * The shared request is only cancelled once every caller waiting for it has been cancelled.
+ */
+final class BookRequestCoalescer {
+
+    /**
+     * Requests in flight, by normalized URL
+     */
+    private static final Map<String, Call> sCalls = new HashMap<>();
+
+    /**
+     * Runs the shared requests, so they don't depend on the thread of any single caller
+     */
+    private static final ExecutorService sExecutor = Executors.newCachedThreadPool();
+
+    /**
+     * Number of requests that joined a request already in flight
+     */
+    private static final AtomicLong sCoalescedCount = new AtomicLong();
+
+    private BookRequestCoalescer() {
+    }
+
+    /**
+     * Fetch the books of the URL, or wait for the request in flight for the same URL.
+     * The listener receives every book, including the ones parsed before this call joined.
+     * Cancelling the signal throws an OperationCanceledException.
+     */
+    static BookList fetch(String requestUrl, BookStreamParser.Listener listener,
+                          CancellationSignal cancellationSignal) {
+        String key = BookListCache.normalizedKey(requestUrl);
+        if (key == null) {
+            return Utils.fetchBookData(requestUrl, listener, cancellationSignal);
+        }
+
+        final Call call;
+        synchronized (sCalls) {
+            Call existingCall = sCalls.get(key);
+            if (existingCall != null && existingCall.join(listener)) {
+                sCoalescedCount.incrementAndGet();
+                call = existingCall;
+            } else {
+                call = new Call(key, requestUrl);
+                call.join(listener);
+                sCalls.put(key, call);
+                sExecutor.execute(call);
+            }
+        }
+
+        final BookStreamParser.Listener caller = listener;
+        cancellationSignal.setOnCancelListener(new CancellationSignal.OnCancelListener() {
+            @Override
+            public void onCancel() {
+                call.leave(caller);
+            }
+        });
+        try {
+            return call.await(cancellationSignal);
+        } finally {
+            cancellationSignal.setOnCancelListener(null);
+        }
+    }
+
+    /**
+     * Return the number of requests that were served by a request already in flight
+     */
+    static long getCoalescedCount() {
+        return sCoalescedCount.get();
+    }
+
+    /**
+     * A shared request and the callers waiting for it
+     */
+    private static final class Call implements Runnable, BookStreamParser.Listener {
+
+        private final String mKey;
+        private final String mRequestUrl;
+        private final CancellationSignal mSharedSignal = new CancellationSignal();
+
+        /**
+         * Guarded by this
+         */
+        private final List<BookStreamParser.Listener> mListeners = new ArrayList<>();
+        private final List<Book> mParsedBooks = new ArrayList<>();
+        private int mCallerCount;
+        private boolean mDone;
+        private BookList mResult;
+        private RuntimeException mFailure;
+
+        Call(String key, String requestUrl) {
+            mKey = key;
+            mRequestUrl = requestUrl;
+        }
+
+        /**
+         * Add a caller, replaying the books parsed so far to its listener.
+         * Return false if the request is already cancelled or finished.
+         */
+        synchronized boolean join(BookStreamParser.Listener listener) {
+            if (mDone || mSharedSignal.isCanceled()) {
+                return false;
+            }
+            if (listener != null) {
+                for (Book book : mParsedBooks) {
+                    listener.onBookParsed(book);
+                }
+                mListeners.add(listener);
+            }
+            mCallerCount++;
+            return true;
+        }
+
+        /**
+         * Remove a cancelled caller, and cancel the request when it was the last one
+         */
+        void leave(BookStreamParser.Listener listener) {
+            boolean cancel;
+            // Same lock order as fetch, so no caller can join between the check and the removal
+            synchronized (sCalls) {
+                synchronized (this) {
+                    mListeners.remove(listener);
+                    mCallerCount--;
+                    cancel = mCallerCount == 0 && !mDone;
+                    notifyAll();
+                }
+                if (cancel && sCalls.get(mKey) == this) {
+                    sCalls.remove(mKey);
+                }
+            }
+            if (cancel) {
+                mSharedSignal.cancel();
+            }
+        }
+
+        synchronized BookList await(CancellationSignal cancellationSignal) {
+            while (!mDone) {
+                cancellationSignal.throwIfCanceled();
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new OperationCanceledException();
+                }
+            }
+            cancellationSignal.throwIfCanceled();
+            if (mFailure != null) {
+                throw mFailure;
+            }
+            return mResult;
+        }
+
+        @Override
+        public synchronized void onBookParsed(Book book) {
+            mParsedBooks.add(book);
+            for (int i = mListeners.size() - 1; i >= 0; i--) {
+                try {
+                    mListeners.get(i).onBookParsed(book);
+                } catch (OperationCanceledException e) {
+                    // That caller is being cancelled, the others still want the books
+                    mListeners.remove(i);
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            BookList result = null;
+            RuntimeException failure = null;
+            try {
+                result = Utils.fetchBookData(mRequestUrl, this, mSharedSignal);
+            } catch (RuntimeException e) {
+                failure = e;
+            }
+            synchronized (sCalls) {
+                if (sCalls.get(mKey) == this) {
+                    sCalls.remove(mKey);
+                }
+            }
+            synchronized (this) {
+                mResult = result;
+                mFailure = failure;
+                mDone = true;
+                mListeners.clear();
+                notifyAll();
+            }
+        }
+    }
+}
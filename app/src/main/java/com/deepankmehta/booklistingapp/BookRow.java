@@ -0,0 +1,230 @@
+/*
+ * Copyright 2018 Deepank Mehta. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * You may not use this file; except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * Distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * Limitations under the License.
+ */
+
+package com.deepankmehta.booklistingapp;
+
+import com.deepankmehta.booklistingapp.core.Book;
+
+import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.Currency;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A book with the text of its row already formatted, so binding a row only assigns the texts.
+ * Rows are created by the loader on a background thread.
+ */
+final class BookRow {
+
+    /**
+     * Price formats of the thread by currency code, for the locale they were created with
+     */
+    private static final ThreadLocal<Map<String, NumberFormat>> sPriceFormats =
+            new ThreadLocal<Map<String, NumberFormat>>() {
+                @Override
+                protected Map<String, NumberFormat> initialValue() {
+                    return new HashMap<>();
+                }
+            };
+    private static final ThreadLocal<Locale> sPriceFormatLocale = new ThreadLocal<>();
+
+    /**
+     * Key of the plain number format used for unknown currencies, not a valid currency code
+     */
+    private static final String NUMBER_FORMAT_KEY = "#";
+
+    private final Book mBook;
+    private final long mStableId;
+    private final String mAuthorText;
+    private final String mPriceText;
+    private final String mLanguageText;
+
+    /**
+     * startIndex of the page of the search that returned the book, or -1 if it didn't come from a page
+     */
+    private final int mStartIndex;
+
+    BookRow(Book book) {
+        this(book, -1);
+    }
+
+    BookRow(Book book, int startIndex) {
+        Locale locale = Locale.getDefault();
+        mBook = book;
+        mStartIndex = startIndex;
+        mStableId = stableId(book);
+        mAuthorText = book.getAuthor() != null ? book.getAuthor().toUpperCase(locale) : null;
+        mPriceText = formatPrice(book.getPrice(), book.getCurrency(), locale);
+        mLanguageText = book.getLanguage() != null ? book.getLanguage().toUpperCase(locale) : null;
+    }
+
+    /**
+     * Return the rows of books that don't come from a page of a search
+     */
+    static List<BookRow> fromBooks(List<Book> books) {
+        return fromBooks(books, null, -1);
+    }
+
+    /**
+     * Return the rows of the books of the page at startIndex, reusing the rows already created for
+     * the same books at the same positions
+     */
+    static List<BookRow> fromBooks(List<Book> books, List<BookRow> existingRows, int startIndex) {
+        if (books == null) {
+            return null;
+        }
+        List<BookRow> rows = new ArrayList<>(books.size());
+        for (int i = 0; i < books.size(); i++) {
+            Book book = books.get(i);
+            if (existingRows != null && i < existingRows.size() && existingRows.get(i).mBook == book) {
+                rows.add(existingRows.get(i));
+            } else {
+                rows.add(new BookRow(book, startIndex));
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Return the rows of books from several pages, startIndexes has the startIndex of the page of each book
+     */
+    static List<BookRow> fromBooks(List<Book> books, int[] startIndexes) {
+        if (books == null) {
+            return null;
+        }
+        List<BookRow> rows = new ArrayList<>(books.size());
+        for (int i = 0; i < books.size(); i++) {
+            rows.add(new BookRow(books.get(i), startIndexes[i]));
+        }
+        return rows;
+    }
+
+    Book getBook() {
+        return mBook;
+    }
+
+    /**
+     * Return the startIndex of the page that returned the book, or -1 if it didn't come from a page
+     */
+    int getStartIndex() {
+        return mStartIndex;
+    }
+
+    /**
+     * Return an id derived from the volume, which stays the same when the list changes
+     */
+    long getStableId() {
+        return mStableId;
+    }
+
+    String getTitleText() {
+        return mBook.getTitle();
+    }
+
+    String getAuthorText() {
+        return mAuthorText;
+    }
+
+    /**
+     * Return the price with its currency, formatted for the default locale
+     */
+    String getPriceText() {
+        return mPriceText;
+    }
+
+    String getLanguageText() {
+        return mLanguageText;
+    }
+
+    /**
+     * Return true if the row shows the same texts and cover as the other one
+     */
+    boolean hasSameContents(BookRow other) {
+        return equal(getTitleText(), other.getTitleText())
+                && equal(mAuthorText, other.mAuthorText)
+                && equal(mPriceText, other.mPriceText)
+                && equal(mLanguageText, other.mLanguageText)
+                && equal(mBook.getThumbnailUrl(), other.mBook.getThumbnailUrl());
+    }
+
+    /**
+     * Return the volume id hashed to 64 bits, or the hash of the buy link and title of books without one
+     */
+    private static long stableId(Book book) {
+        String key = book.getVolumeId();
+        if (key == null) {
+            key = book.getUrl() + '\n' + book.getTitle();
+        }
+        // 64 bit FNV-1a hash
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * Return the price in the currency format of the locale
+     */
+    static String formatPrice(double price, String currencyCode, Locale locale) {
+        // Formats are expensive to create, each thread keeps one per currency
+        Map<String, NumberFormat> formats = sPriceFormats.get();
+        if (!locale.equals(sPriceFormatLocale.get())) {
+            formats.clear();
+            sPriceFormatLocale.set(locale);
+        }
+        if (!formats.containsKey(currencyCode)) {
+            formats.put(currencyCode, currencyFormat(currencyCode, locale));
+        }
+        NumberFormat format = formats.get(currencyCode);
+        if (format != null) {
+            return format.format(price);
+        }
+
+        // Not an ISO 4217 code, the code is written after the number
+        format = formats.get(NUMBER_FORMAT_KEY);
+        if (format == null) {
+            format = NumberFormat.getNumberInstance(locale);
+            format.setMinimumFractionDigits(2);
+            format.setMaximumFractionDigits(2);
+            formats.put(NUMBER_FORMAT_KEY, format);
+        }
+        String priceText = format.format(price);
+        return currencyCode != null ? priceText + " " + currencyCode : priceText;
+    }
+
+    /**
+     * Return the currency format of the locale for the currency code, or null if the code is unknown
+     */
+    private static NumberFormat currencyFormat(String currencyCode, Locale locale) {
+        if (currencyCode == null) {
+            return null;
+        }
+        try {
+            Currency currency = Currency.getInstance(currencyCode);
+            NumberFormat format = NumberFormat.getCurrencyInstance(locale);
+            format.setCurrency(currency);
+            return format;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
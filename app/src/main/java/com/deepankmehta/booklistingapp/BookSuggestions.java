@@ -0,0 +1,194 @@
+/*
+ * Copyright 2018 Deepank Mehta. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * You may not use this file; except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * Distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * Limitations under the License.
+ */
+
+package com.deepankmehta.booklistingapp;
+
+import android.app.SearchManager;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.provider.BaseColumns;
+import android.util.Log;
+
+import com.deepankmehta.booklistingapp.core.Book;
+import com.deepankmehta.booklistingapp.core.SuggestionIndex;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Search suggestions from the titles and authors of the books loaded so far and from the past searches,
+ * kept in a {@link SuggestionIndex} and saved to an app private file between runs
+ */
+final class BookSuggestions {
+
+    // Tag for the log messages
+    private static final String LOG_TAG = BookSuggestions.class.getSimpleName();
+
+    private static final String FILE_NAME = "suggestions.bin";
+
+    /**
+     * Columns of the suggestion cursors
+     */
+    static final String COLUMN_SUGGESTION = SearchManager.SUGGEST_COLUMN_TEXT_1;
+    private static final String[] COLUMNS = {BaseColumns._ID, COLUMN_SUGGESTION};
+
+    /**
+     * Number of terms kept, and of the books of the catalog that fill a new index
+     */
+    private static final int MAX_TERMS = 5000;
+    private static final int CATALOG_BOOKS = 1000;
+
+    private static BookSuggestions sInstance;
+
+    private final SuggestionIndex mIndex = new SuggestionIndex(MAX_TERMS);
+    private final File mFile;
+    private final BookCatalog mCatalog;
+
+    /**
+     * Loads, updates and saves run one after the other on this executor, the index has a single writer
+     */
+    private final Executor mExecutor = Executors.newSingleThreadExecutor();
+
+    /**
+     * True once the index has changes that aren't saved, only used on the executor
+     */
+    private boolean mDirty;
+
+    private BookSuggestions(Context context) {
+        mFile = new File(context.getFilesDir(), FILE_NAME);
+        mCatalog = BookCatalog.getInstance(context);
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                load();
+            }
+        });
+    }
+
+    static synchronized BookSuggestions getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new BookSuggestions(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Return a cursor over the suggestions for the typed text, can be called on any thread
+     */
+    Cursor suggest(CharSequence text, int limit) {
+        MatrixCursor cursor = new MatrixCursor(COLUMNS, limit);
+        if (text == null) {
+            return cursor;
+        }
+        List<String> suggestions = mIndex.suggest(text.toString(), limit);
+        for (int i = 0; i < suggestions.size(); i++) {
+            cursor.addRow(new Object[]{i, suggestions.get(i)});
+        }
+        return cursor;
+    }
+
+    /**
+     * Add the titles and authors of the books in the background
+     */
+    void addBooksAsync(final List<Book> books) {
+        if (books == null || books.isEmpty()) {
+            return;
+        }
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mIndex.addBooks(books);
+                mDirty = true;
+            }
+        });
+    }
+
+    /**
+     * Add a search value that returned books in the background
+     */
+    void addQueryAsync(final String query) {
+        if (query == null || query.trim().isEmpty()) {
+            return;
+        }
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mIndex.addQuery(query);
+                mDirty = true;
+            }
+        });
+    }
+
+    /**
+     * Save the index in the background if it changed
+     */
+    void saveAsync() {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (mDirty) {
+                    save();
+                }
+            }
+        });
+    }
+
+    private void load() {
+        if (mFile.isFile()) {
+            try {
+                DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+                try {
+                    mIndex.readFrom(input, mFile.length());
+                    return;
+                } finally {
+                    input.close();
+                }
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Problem reading the suggestions", e);
+            }
+        }
+        // A new index, or one that can't be read, starts with the books already in the catalog
+        mIndex.addBooks(mCatalog.recentBooks(CATALOG_BOOKS));
+        mDirty = true;
+    }
+
+    private void save() {
+        // Written next to the file and renamed, so a reader never sees half an index
+        File tempFile = new File(mFile.getPath() + ".tmp");
+        try {
+            DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+            try {
+                mIndex.writeTo(output);
+            } finally {
+                output.close();
+            }
+            if (!tempFile.renameTo(mFile)) {
+                throw new IOException("Can't rename " + tempFile);
+            }
+            mDirty = false;
+        } catch (IOException e) {
+            tempFile.delete();
+            Log.e(LOG_TAG, "Problem writing the suggestions", e);
+        }
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright 2018 Deepank Mehta. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * You may not use this file; except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * Distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * Limitations under the License.
+ */
+
+package com.deepankmehta.booklistingapp;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkInfo;
+import android.net.NetworkRequest;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.deepankmehta.booklistingapp.core.NetworkEstimator;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Follows the connectivity through ConnectivityManager callbacks instead of polling it,
+ * and picks the page size and the projection of a search from the kind of network
+ * and the {@link NetworkEstimator}. Only used on the main thread.
+ */
+final class NetworkMonitor {
+
+    // Tag for the log messages
+    private static final String LOG_TAG = NetworkMonitor.class.getSimpleName();
+
+    /**
+     * Number of books per page on a slow network and on a metered one,
+     * {@link BookPager#PAGE_SIZE} otherwise
+     */
+    static final int SLOW_PAGE_SIZE = 10;
+    static final int METERED_PAGE_SIZE = 20;
+
+    /**
+     * Receives the changes of the connectivity
+     */
+    interface Listener {
+        /**
+         * Called on the main thread when the device gets connected or loses its connection
+         */
+        void onConnectivityChanged(boolean connected);
+    }
+
+    private final ConnectivityManager mConnectivityManager;
+    private final Listener mListener;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Networks with internet access, only the default one from Android N
+     */
+    private final Set<Network> mNetworks = new HashSet<>();
+
+    private boolean mRegistered;
+    private boolean mConnected;
+    private boolean mMetered;
+
+    /**
+     * Bandwidth announced by the default network, 0 if unknown
+     */
+    private int mLinkDownstreamKbps;
+
+    /**
+     * The callbacks come on a binder thread and are handed to the main thread
+     */
+    private final ConnectivityManager.NetworkCallback mNetworkCallback = new ConnectivityManager.NetworkCallback() {
+        @Override
+        public void onAvailable(final Network network) {
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (!mRegistered) {
+                        return;
+                    }
+                    // A new default network replaces the previous one, which may not be reported lost
+                    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+                        mNetworks.clear();
+                    }
+                    if (mNetworks.add(network)) {
+                        // The estimate of the previous network doesn't apply to this one
+                        NetworkEstimator.reset();
+                        update(null);
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void onLost(final Network network) {
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (mRegistered && mNetworks.remove(network)) {
+                        NetworkEstimator.reset();
+                        update(null);
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void onCapabilitiesChanged(Network network, final NetworkCapabilities capabilities) {
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (mRegistered) {
+                        update(capabilities);
+                    }
+                }
+            });
+        }
+    };
+
+    NetworkMonitor(Context context, Listener listener) {
+        mConnectivityManager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        mListener = listener;
+        mConnected = isActiveNetworkConnected();
+        mMetered = mConnectivityManager.isActiveNetworkMetered();
+    }
+
+    /**
+     * Start following the connectivity, the listener hears about a change that happened while stopped
+     */
+    void start() {
+        if (mRegistered) {
+            return;
+        }
+        mRegistered = true;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            mConnectivityManager.registerDefaultNetworkCallback(mNetworkCallback);
+        } else {
+            NetworkRequest request = new NetworkRequest.Builder()
+                    .addCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET)
+                    .build();
+            mConnectivityManager.registerNetworkCallback(request, mNetworkCallback);
+        }
+        // The callbacks only report the networks later on
+        setConnected(isActiveNetworkConnected());
+    }
+
+    /**
+     * Stop following the connectivity
+     */
+    void stop() {
+        if (!mRegistered) {
+            return;
+        }
+        mRegistered = false;
+        mConnectivityManager.unregisterNetworkCallback(mNetworkCallback);
+        mNetworks.clear();
+    }
+
+    boolean isConnected() {
+        return mConnected;
+    }
+
+    /**
+     * Return true if the estimate, or the bandwidth announced by the network, says it's slow
+     */
+    boolean isSlow() {
+        return NetworkEstimator.isSlow(mLinkDownstreamKbps);
+    }
+
+    /**
+     * Return the number of books to request per page, small pages keep the time to the first
+     * results short on a slow network and spare the data on a metered one
+     */
+    int getPageSize() {
+        if (isSlow()) {
+            return SLOW_PAGE_SIZE;
+        }
+        return mMetered ? METERED_PAGE_SIZE : BookPager.PAGE_SIZE;
+    }
+
+    /**
+     * Return true if the cover images are worth requesting
+     */
+    boolean wantsImages() {
+        return !isSlow();
+    }
+
+    /**
+     * Update the state from the networks, and from the capabilities of the default network if known
+     */
+    private void update(NetworkCapabilities capabilities) {
+        if (capabilities != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            mMetered = !capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_NOT_METERED);
+            mLinkDownstreamKbps = capabilities.getLinkDownstreamBandwidthKbps();
+        } else {
+            // Before Android N the callbacks are about any network, not only the default one
+            mMetered = mConnectivityManager.isActiveNetworkMetered();
+        }
+        setConnected(!mNetworks.isEmpty());
+    }
+
+    private void setConnected(boolean connected) {
+        if (connected == mConnected) {
+            return;
+        }
+        mConnected = connected;
+        if (!connected) {
+            mLinkDownstreamKbps = 0;
+        }
+        Log.i(LOG_TAG, connected ? "Connected" : "Connection lost");
+        mListener.onConnectivityChanged(connected);
+    }
+
+    private boolean isActiveNetworkConnected() {
+        NetworkInfo activeNetwork = mConnectivityManager.getActiveNetworkInfo();
+        return activeNetwork != null && activeNetwork.isConnected();
+    }
+}
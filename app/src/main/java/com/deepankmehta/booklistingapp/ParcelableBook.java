@@ -0,0 +1,103 @@
+/*
+ * Copyright 2018 Deepank Mehta. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * You may not use this file; except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * Distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * Limitations under the License.
+ */
+
+package com.deepankmehta.booklistingapp;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import com.deepankmehta.booklistingapp.core.Book;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parcelable wrapper of a {@link Book}, which stays a plain class of the core module,
+ * for the books passed in a Bundle or an Intent
+ */
+final class ParcelableBook implements Parcelable {
+
+    public static final Parcelable.Creator<ParcelableBook> CREATOR = new Parcelable.Creator<ParcelableBook>() {
+        @Override
+        public ParcelableBook createFromParcel(Parcel source) {
+            return new ParcelableBook(source);
+        }
+
+        @Override
+        public ParcelableBook[] newArray(int size) {
+            return new ParcelableBook[size];
+        }
+    };
+
+    private final Book mBook;
+
+    ParcelableBook(Book book) {
+        mBook = book;
+    }
+
+    private ParcelableBook(Parcel in) {
+        String volumeId = in.readString();
+        String title = in.readString();
+        String authorNames = in.readString();
+        long priceHundredths = in.readLong();
+        String currency = in.readString();
+        String language = in.readString();
+        String buyLink = in.readString();
+        String thumbnailUrl = in.readString();
+        mBook = new Book(volumeId, title, authorNames, priceHundredths / 100.0, currency, language,
+                buyLink, thumbnailUrl);
+    }
+
+    Book getBook() {
+        return mBook;
+    }
+
+    /**
+     * Return the wrapped books of the rows
+     */
+    static ArrayList<ParcelableBook> fromRows(List<BookRow> rows) {
+        ArrayList<ParcelableBook> books = new ArrayList<>(rows.size());
+        for (BookRow row : rows) {
+            books.add(new ParcelableBook(row.getBook()));
+        }
+        return books;
+    }
+
+    /**
+     * Return the books wrapped in the list
+     */
+    static List<Book> toBooks(List<ParcelableBook> parcelableBooks) {
+        List<Book> books = new ArrayList<>(parcelableBooks.size());
+        for (ParcelableBook parcelableBook : parcelableBooks) {
+            books.add(parcelableBook.mBook);
+        }
+        return books;
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeString(mBook.getVolumeId());
+        dest.writeString(mBook.getTitle());
+        dest.writeString(mBook.getAuthorNames());
+        dest.writeLong(mBook.getPriceHundredths());
+        dest.writeString(mBook.getCurrency());
+        dest.writeString(mBook.getLanguage());
+        dest.writeString(mBook.getUrl());
+        dest.writeString(mBook.getThumbnailUrl());
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2018 Deepank Mehta. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * You may not use this file; except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * Distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * Limitations under the License.
+ */
+
+package com.deepankmehta.booklistingapp;
+
+import android.app.job.JobParameters;
+import android.app.job.JobService;
+import android.os.AsyncTask;
+import android.util.Log;
+
+import com.deepankmehta.booklistingapp.core.CancellationToken;
+import com.deepankmehta.booklistingapp.core.FetchCanceledException;
+
+/**
+ * Periodic job refreshing the prices of the watchlist, scheduled by the {@link PriceWatcher}
+ */
+public class PriceWatchService extends JobService {
+
+    // Tag for the log messages
+    private static final String LOG_TAG = PriceWatchService.class.getSimpleName();
+
+    /**
+     * Token of the refresh in progress, cancelled when the job has to stop
+     */
+    private volatile CancellationToken mCancellationToken;
+
+    @Override
+    public boolean onStartJob(final JobParameters params) {
+        final CancellationToken cancellationToken = new CancellationToken();
+        mCancellationToken = cancellationToken;
+        // The job runs on the main thread, the refresh goes to the background
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                boolean succeeded;
+                try {
+                    succeeded = PriceWatcher.getInstance(PriceWatchService.this).refresh(cancellationToken);
+                } catch (FetchCanceledException e) {
+                    // onStopJob already asked for a reschedule
+                    return;
+                }
+                if (!succeeded) {
+                    Log.w(LOG_TAG, "Some prices couldn't be checked, the refresh will be tried again");
+                }
+                jobFinished(params, !succeeded);
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        // The network or the charger went away, the connection is closed and the job runs again later
+        CancellationToken cancellationToken = mCancellationToken;
+        if (cancellationToken != null) {
+            cancellationToken.cancel();
+        }
+        return true;
+    }
+}
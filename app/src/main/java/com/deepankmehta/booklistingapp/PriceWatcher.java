@@ -0,0 +1,225 @@
+/*
+ * Copyright 2018 Deepank Mehta. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * You may not use this file; except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * Distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * Limitations under the License.
+ */
+
+package com.deepankmehta.booklistingapp;
+
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.app.job.JobInfo;
+import android.app.job.JobScheduler;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.widget.Toast;
+
+import com.deepankmehta.booklistingapp.core.Book;
+import com.deepankmehta.booklistingapp.core.BookClient;
+import com.deepankmehta.booklistingapp.core.CancellationToken;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watchlist of books whose price is checked in the background by the {@link PriceWatchService},
+ * with a notification when a price drops.
+ * The watched books are checked through the pages of the searches that had them, one request per
+ * page rather than per book, and each refresh sends at most MAX_PAGES_PER_REFRESH of them,
+ * so its cost doesn't grow with the watchlist. The pages are cached by their URL like the ones
+ * of the app: an unchanged page costs a 304.
+ * A book is only looked up on its page, if the search moves it to another page its price
+ * stays the one it was last seen with until it is watched again.
+ */
+final class PriceWatcher {
+
+    // Tag for the log messages
+    private static final String LOG_TAG = PriceWatcher.class.getSimpleName();
+
+    private static final int JOB_ID = 1;
+    private static final long REFRESH_INTERVAL_MS = TimeUnit.HOURS.toMillis(6);
+
+    /**
+     * Pages sent by one refresh, the ones checked longest ago go first
+     */
+    private static final int MAX_PAGES_PER_REFRESH = 8;
+
+    private static final String CHANNEL_ID = "price_drops";
+    private static final String NOTIFICATION_TAG = "price_drop";
+
+    private static PriceWatcher sInstance;
+
+    private final Context mContext;
+    private final BookCatalog mCatalog;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Changes of the watchlist run one after the other
+     */
+    private final Executor mExecutor = Executors.newSingleThreadExecutor();
+
+    private PriceWatcher(Context context) {
+        mContext = context;
+        mCatalog = BookCatalog.getInstance(context);
+    }
+
+    static synchronized PriceWatcher getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new PriceWatcher(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Start or stop watching the price of the book in the background, found on the page of the
+     * search value starting at startIndex, and tell the user with a toast
+     */
+    void toggleWatchAsync(final Book book, final String query, final int startIndex) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final boolean watched = mCatalog.toggleWatch(book, query, startIndex);
+                updateSchedule(!mCatalog.watchedBooks().isEmpty());
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        Toast.makeText(mContext, mContext.getString(watched
+                                ? R.string.price_watch_started : R.string.price_watch_stopped,
+                                book.getTitle()), Toast.LENGTH_SHORT).show();
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Schedule the periodic refresh while there are books to watch, on an unmetered network
+     * and, if configured, while charging
+     */
+    private void updateSchedule(boolean watching) {
+        JobScheduler jobScheduler = (JobScheduler) mContext.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        if (!watching) {
+            jobScheduler.cancel(JOB_ID);
+            return;
+        }
+        // Scheduling the job again would restart its period
+        for (JobInfo pendingJob : jobScheduler.getAllPendingJobs()) {
+            if (pendingJob.getId() == JOB_ID) {
+                return;
+            }
+        }
+        JobInfo jobInfo = new JobInfo.Builder(JOB_ID, new ComponentName(mContext, PriceWatchService.class))
+                .setPeriodic(REFRESH_INTERVAL_MS)
+                .setRequiredNetworkType(JobInfo.NETWORK_TYPE_UNMETERED)
+                .setRequiresCharging(mContext.getResources().getBoolean(R.bool.price_watch_requires_charging))
+                .setPersisted(true)
+                .build();
+        if (jobScheduler.schedule(jobInfo) != JobScheduler.RESULT_SUCCESS) {
+            Log.e(LOG_TAG, "Problem scheduling the price refresh");
+        }
+    }
+
+    /**
+     * Check the prices of the books watched longest ago and notify the drops, on a background thread.
+     * Return false if a page failed and the refresh should be tried again.
+     * Cancelling the token stops the refresh with a FetchCanceledException.
+     */
+    boolean refresh(CancellationToken cancellationToken) {
+        // The watched books grouped by the URL of the page that had them, the longest unchecked first
+        Map<String, List<BookCatalog.WatchedBook>> pages = new LinkedHashMap<>();
+        for (BookCatalog.WatchedBook watchedBook : mCatalog.watchedBooks()) {
+            String url = BookPager.pageUrl(BookClient.buildQueryUrl(watchedBook.query, BookPager.PAGE_SIZE),
+                    watchedBook.startIndex);
+            List<BookCatalog.WatchedBook> group = pages.get(url);
+            if (group == null) {
+                group = new ArrayList<>();
+                pages.put(url, group);
+            }
+            group.add(watchedBook);
+        }
+
+        boolean succeeded = true;
+        int sent = 0;
+        for (Map.Entry<String, List<BookCatalog.WatchedBook>> page : pages.entrySet()) {
+            if (sent == MAX_PAGES_PER_REFRESH) {
+                break;
+            }
+            sent++;
+            List<Book> books = BookClient.fetch(page.getKey(), null, cancellationToken);
+            if (books == null) {
+                succeeded = false;
+                continue;
+            }
+            mCatalog.saveBooksAsync(books);
+
+            Map<String, Book> booksById = new HashMap<>();
+            for (Book book : books) {
+                booksById.put(book.getVolumeId(), book);
+            }
+            long now = System.currentTimeMillis();
+            for (BookCatalog.WatchedBook watchedBook : page.getValue()) {
+                // A book that moved off its page keeps the price it was last seen with
+                Book book = booksById.get(watchedBook.volumeId);
+                mCatalog.updateWatch(watchedBook.volumeId, book, now);
+                if (book != null && book.getPriceHundredths() < watchedBook.priceHundredths
+                        && equal(book.getCurrency(), watchedBook.currency)) {
+                    notifyPriceDrop(watchedBook, book);
+                }
+            }
+        }
+        Log.i(LOG_TAG, "Checked " + sent + " of " + pages.size() + " pages");
+        return succeeded;
+    }
+
+    private void notifyPriceDrop(BookCatalog.WatchedBook watchedBook, Book book) {
+        NotificationManager notificationManager =
+                (NotificationManager) mContext.getSystemService(Context.NOTIFICATION_SERVICE);
+        Notification.Builder builder;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            notificationManager.createNotificationChannel(new NotificationChannel(CHANNEL_ID,
+                    mContext.getString(R.string.price_drop_channel), NotificationManager.IMPORTANCE_DEFAULT));
+            builder = new Notification.Builder(mContext, CHANNEL_ID);
+        } else {
+            builder = new Notification.Builder(mContext);
+        }
+        Locale locale = Locale.getDefault();
+        builder.setSmallIcon(R.drawable.ic_stat_price_drop)
+                .setContentTitle(mContext.getString(R.string.price_drop_title, book.getTitle()))
+                .setContentText(mContext.getString(R.string.price_drop_text,
+                        BookRow.formatPrice(watchedBook.priceHundredths / 100.0, watchedBook.currency, locale),
+                        BookRow.formatPrice(book.getPrice(), book.getCurrency(), locale)))
+                .setAutoCancel(true);
+        if (book.getUrl() != null) {
+            // Like a click on the book in the list, open its page in the store
+            Intent intent = new Intent(Intent.ACTION_VIEW, Uri.parse(book.getUrl()));
+            builder.setContentIntent(PendingIntent.getActivity(mContext, 0, intent, PendingIntent.FLAG_UPDATE_CURRENT));
+        }
+        notificationManager.notify(NOTIFICATION_TAG, watchedBook.volumeId.hashCode(), builder.build());
+    }
+
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
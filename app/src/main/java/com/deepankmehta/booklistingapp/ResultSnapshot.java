@@ -0,0 +1,257 @@
+/*
+ * Copyright 2018 Deepank Mehta. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * You may not use this file; except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * Distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * Limitations under the License.
+ */
+
+package com.deepankmehta.booklistingapp;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.deepankmehta.booklistingapp.core.Book;
+import com.deepankmehta.booklistingapp.core.BookMetrics;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Compact binary copy of the shown results, written to an app private file so the list can
+ * come back after process death without going through the Bundle or the network.
+ * The saved state records the generation of the snapshot it goes with, so a file left by
+ * an earlier save, because the process died before the new one was written, isn't restored.
+ */
+final class ResultSnapshot {
+
+    // Tag for the log messages
+    private static final String LOG_TAG = ResultSnapshot.class.getSimpleName();
+
+    private static final int MAGIC = 0x424b5331;
+    private static final int VERSION = 4;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Smallest size of a stored book: the length of its seven strings, the price and the startIndex of its page
+     */
+    private static final int MIN_BOOK_BYTES = 7 * 4 + 8 + 4;
+
+    /**
+     * Snapshots are written and read one after the other, off the main thread
+     */
+    private static final Executor sExecutor = Executors.newSingleThreadExecutor();
+
+    /**
+     * Receives a snapshot read in the background, on the main thread
+     */
+    interface Callback {
+        /**
+         * @param snapshot the snapshot, or null if there is no valid one of the expected generation
+         */
+        void onSnapshotRead(ResultSnapshot snapshot);
+    }
+
+    /**
+     * Identifies the save the snapshot was written for
+     */
+    final long generation;
+
+    /**
+     * Search value and URL of the results
+     */
+    final String query;
+    final String url;
+
+    /**
+     * Position of the first visible row
+     */
+    final int scrollPosition;
+
+    /**
+     * Rows of the results, their texts are formatted again when they are read
+     */
+    final List<BookRow> rows;
+
+    ResultSnapshot(long generation, String query, String url, int scrollPosition, List<BookRow> rows) {
+        this.generation = generation;
+        this.query = query;
+        this.url = url;
+        this.scrollPosition = scrollPosition;
+        this.rows = rows;
+    }
+
+    /**
+     * Write the snapshot to the file in the background, replacing the previous one
+     */
+    void writeAsync(final File file) {
+        sExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    write(file);
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Problem writing the snapshot", e);
+                }
+            }
+        });
+    }
+
+    private void write(File file) throws IOException {
+        // Written next to the file and renamed, so a reader never sees half a snapshot
+        File tempFile = new File(file.getPath() + ".tmp");
+        FileOutputStream fileOutput = new FileOutputStream(tempFile);
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(fileOutput));
+        try {
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeLong(generation);
+            writeString(output, query);
+            writeString(output, url);
+            output.writeInt(scrollPosition);
+            output.writeInt(rows.size());
+            for (BookRow row : rows) {
+                Book book = row.getBook();
+                writeString(output, book.getVolumeId());
+                writeString(output, book.getTitle());
+                writeString(output, book.getAuthorNames());
+                output.writeLong(book.getPriceHundredths());
+                writeString(output, book.getCurrency());
+                writeString(output, book.getLanguage());
+                writeString(output, book.getUrl());
+                writeString(output, book.getThumbnailUrl());
+                output.writeInt(row.getStartIndex());
+            }
+            // On the disk before the rename, so the file is either the old snapshot or the whole new one
+            output.flush();
+            fileOutput.getFD().sync();
+        } finally {
+            output.close();
+        }
+        if (!tempFile.renameTo(file)) {
+            tempFile.delete();
+            throw new IOException("Can't rename " + tempFile);
+        }
+    }
+
+    /**
+     * Read the snapshot of the generation in the background, after the writes already queued,
+     * and hand it to the callback on the main thread
+     */
+    static void readAsync(final File file, final long generation, final Callback callback) {
+        final Handler mainHandler = new Handler(Looper.getMainLooper());
+        sExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                long start = SystemClock.elapsedRealtime();
+                final ResultSnapshot snapshot = read(file, generation);
+                BookMetrics.SNAPSHOT_READ_TIME.record(
+                        (SystemClock.elapsedRealtime() - start) * 1000);
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onSnapshotRead(snapshot);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Read a snapshot through a memory mapping of the file, or return null if there is no valid one
+     * of the generation
+     */
+    private static ResultSnapshot read(File file, long generation) {
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+            try {
+                FileChannel channel = randomAccessFile.getChannel();
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                    return null;
+                }
+                if (buffer.getLong() != generation) {
+                    Log.w(LOG_TAG, "The snapshot is older than the saved state");
+                    return null;
+                }
+                String query = readString(buffer);
+                String url = readString(buffer);
+                int scrollPosition = buffer.getInt();
+                int count = buffer.getInt();
+                // A damaged count must not size the list beyond what the file can hold
+                if (count < 0 || count > buffer.remaining() / MIN_BOOK_BYTES) {
+                    throw new IOException("Bad book count " + count);
+                }
+                List<BookRow> rows = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    String volumeId = readString(buffer);
+                    String title = readString(buffer);
+                    String author = readString(buffer);
+                    long priceHundredths = buffer.getLong();
+                    String currency = readString(buffer);
+                    String language = readString(buffer);
+                    String buyLink = readString(buffer);
+                    String thumbnailUrl = readString(buffer);
+                    Book book = new Book(volumeId, title, author, priceHundredths / 100.0, currency, language,
+                            buyLink, thumbnailUrl);
+                    rows.add(new BookRow(book, buffer.getInt()));
+                }
+                return new ResultSnapshot(generation, query, url, scrollPosition, rows);
+            } finally {
+                randomAccessFile.close();
+            }
+        } catch (IOException | BufferUnderflowException | IllegalArgumentException e) {
+            Log.e(LOG_TAG, "Problem reading the snapshot", e);
+            return null;
+        }
+    }
+
+    /**
+     * Strings are stored as their UTF-8 length, -1 for null, followed by the bytes
+     */
+    private static void writeString(DataOutputStream output, String value) throws IOException {
+        if (value == null) {
+            output.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) throws IOException {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > buffer.remaining()) {
+            throw new IOException("Bad string length " + length);
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2018 Deepank Mehta. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * You may not use this file; except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * Distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * Limitations under the License.
+ */
+package com.deepankmehta.booklistingapp;
+
+import android.app.Activity;
+import android.os.Build;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.View;
+import android.view.ViewTreeObserver;
+
+import com.deepankmehta.booklistingapp.core.BookMetrics;
+
+/**
+ * Milestones of a cold start: process start, first frame and first results shown.
+ * The times are recorded in {@link BookMetrics} and logged, and the activity reports itself
+ * fully drawn with its first frame, nothing is loaded before the user searches.
+ * Only the first activity of the process is measured. All the methods are called on the main thread.
+ */
+final class StartupTrace {
+
+    // Tag for the log messages
+    private static final String LOG_TAG = StartupTrace.class.getSimpleName();
+
+    /**
+     * Start of the process in SystemClock.elapsedRealtime() milliseconds, -1 until the application is created
+     */
+    private static long sProcessStart = -1;
+
+    private static boolean sFirstFrameRecorded;
+    private static boolean sFirstResultRecorded;
+
+    private StartupTrace() {
+    }
+
+    /**
+     * Called when the application is created
+     */
+    static void onApplicationCreate() {
+        // Before Android N, the creation of the application is the closest known point
+        sProcessStart = Build.VERSION.SDK_INT >= Build.VERSION_CODES.N
+                ? Process.getStartElapsedRealtime() : SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * Record the first frame of the activity and report it fully drawn
+     */
+    static void watchFirstFrame(final Activity activity) {
+        if (sFirstFrameRecorded || sProcessStart < 0) {
+            return;
+        }
+        final View decorView = activity.getWindow().getDecorView();
+        decorView.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                decorView.getViewTreeObserver().removeOnPreDrawListener(this);
+                if (!sFirstFrameRecorded) {
+                    sFirstFrameRecorded = true;
+                    record(BookMetrics.STARTUP_FIRST_FRAME, "First frame");
+                    activity.reportFullyDrawn();
+                }
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Called whenever results are shown, records the first ones of the process
+     */
+    static void onResultsShown() {
+        if (sFirstResultRecorded || sProcessStart < 0) {
+            return;
+        }
+        sFirstResultRecorded = true;
+        record(BookMetrics.STARTUP_FIRST_RESULT, "First results");
+    }
+
+    private static void record(BookMetrics.Histogram histogram, String milestone) {
+        long elapsedMillis = SystemClock.elapsedRealtime() - sProcessStart;
+        histogram.record(elapsedMillis);
+        Log.i(LOG_TAG, milestone + " " + elapsedMillis + " ms after the process start");
+    }
+}
@@ -0,0 +1,392 @@
+/*
+ * Copyright 2018 Deepank Mehta. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * You may not use this file; except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * Distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * Limitations under the License.
+ */
+
+package com.deepankmehta.booklistingapp;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loads the cover thumbnails of the rows. Decoded bitmaps are kept in a memory cache bounded
+ * in bytes, downloaded images in a disk cache, and images are decoded at the size of the view.
+ * A request is cancelled when its view is bound to another book or recycled.
+ */
+final class ThumbnailLoader {
+
+    // Tag for the log messages
+    private static final String LOG_TAG = ThumbnailLoader.class.getSimpleName();
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Downloads and decodes running at the same time
+     */
+    private static final int MAX_THREADS = 3;
+
+    /**
+     * Part of the heap the decoded bitmaps may use, and size budget of the downloaded images
+     */
+    private static final int HEAP_FRACTION = 8;
+    private static final long DISK_CACHE_SIZE = 10 * 1024 * 1024;
+
+    private static final int READ_TIMEOUT = 10000;
+    private static final int CONNECT_TIMEOUT = 15000;
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    private static ThumbnailLoader sInstance;
+
+    private final LruCache<String, Bitmap> mMemoryCache;
+    private final File mDiskDirectory;
+    private final int mTargetWidth;
+    private final int mTargetHeight;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Downloaded images by file name in access order, read from the directory on first use
+     */
+    private final LinkedHashMap<String, Long> mDiskEntries = new LinkedHashMap<>(16, 0.75f, true);
+    private boolean mDiskEntriesRead;
+    private long mDiskSize;
+
+    private final ThreadPoolExecutor mExecutor = new ThreadPoolExecutor(MAX_THREADS, MAX_THREADS,
+            30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+
+    private ThumbnailLoader(Context context) {
+        int maxSize = (int) (Runtime.getRuntime().maxMemory() / HEAP_FRACTION);
+        mMemoryCache = new LruCache<String, Bitmap>(maxSize) {
+            @Override
+            protected int sizeOf(String url, Bitmap bitmap) {
+                return bitmap.getByteCount();
+            }
+        };
+        mDiskDirectory = new File(context.getCacheDir(), "thumbnails");
+        mTargetWidth = context.getResources().getDimensionPixelSize(R.dimen.thumbnail_width);
+        mTargetHeight = context.getResources().getDimensionPixelSize(R.dimen.thumbnail_height);
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    static synchronized ThumbnailLoader getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ThumbnailLoader(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Show the image of the URL in the view, replacing the request of the book the view showed before
+     */
+    void load(String url, ImageView imageView) {
+        cancel(imageView);
+        if (url == null) {
+            imageView.setImageResource(R.drawable.thumbnail_placeholder);
+            return;
+        }
+        Bitmap bitmap = mMemoryCache.get(url);
+        if (bitmap != null) {
+            imageView.setImageBitmap(bitmap);
+            return;
+        }
+        imageView.setImageResource(R.drawable.thumbnail_placeholder);
+        Request request = new Request(url, imageView);
+        imageView.setTag(R.id.thumbnail, request);
+        request.mFuture = mExecutor.submit(request);
+    }
+
+    /**
+     * Cancel the request of the view, if any, so an image that is no longer shown is never decoded
+     */
+    void cancel(ImageView imageView) {
+        Request request = (Request) imageView.getTag(R.id.thumbnail);
+        if (request != null) {
+            imageView.setTag(R.id.thumbnail, null);
+            request.cancel();
+        }
+    }
+
+    /**
+     * Release memory when the system asks for it
+     */
+    static void onTrimMemory(int level) {
+        ThumbnailLoader loader;
+        synchronized (ThumbnailLoader.class) {
+            loader = sInstance;
+        }
+        if (loader == null) {
+            return;
+        }
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            loader.mMemoryCache.evictAll();
+        } else if (level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            loader.mMemoryCache.trimToSize(loader.mMemoryCache.maxSize() / 2);
+        }
+        // TRIM_MEMORY_UI_HIDDEN and TRIM_MEMORY_BACKGROUND keep the thumbnails,
+        // the user coming back to the app sees them without any I/O
+    }
+
+    /**
+     * Return the decoded image, downloading it unless it is on disk, or null if the request was cancelled
+     */
+    private Bitmap loadBitmap(Request request) throws IOException {
+        File file = new File(mDiskDirectory, fileName(request.mUrl));
+        if (!touchDiskEntry(file)) {
+            if (!download(request, file)) {
+                return null;
+            }
+        }
+        if (request.mCanceled) {
+            return null;
+        }
+        return decode(file);
+    }
+
+    /**
+     * Download the image to the file. Return false if the request was cancelled meanwhile.
+     */
+    private boolean download(Request request, File file) throws IOException {
+        File tempFile = new File(file.getPath() + ".tmp" + Thread.currentThread().getId());
+        boolean stored = false;
+        HttpURLConnection urlConnection = (HttpURLConnection) new URL(request.mUrl).openConnection();
+        try {
+            urlConnection.setReadTimeout(READ_TIMEOUT);
+            urlConnection.setConnectTimeout(CONNECT_TIMEOUT);
+            if (urlConnection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                throw new IOException("Response code " + urlConnection.getResponseCode());
+            }
+            InputStream input = urlConnection.getInputStream();
+            OutputStream output = new FileOutputStream(tempFile);
+            try {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int read;
+                while ((read = input.read(buffer)) != -1) {
+                    // Stop as soon as the row is recycled
+                    if (request.mCanceled) {
+                        return false;
+                    }
+                    output.write(buffer, 0, read);
+                }
+            } finally {
+                output.close();
+                input.close();
+            }
+            addDiskEntry(tempFile, file);
+            stored = true;
+        } finally {
+            urlConnection.disconnect();
+            // A cancelled, failed or timed out download leaves nothing behind, it isn't counted in the cache size
+            if (!stored) {
+                tempFile.delete();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Decode the image with the largest power of two subsampling that keeps it at least as large
+     * as the view, so the full size image is never in memory
+     */
+    private Bitmap decode(File file) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(file.getPath(), options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+        int sampleSize = 1;
+        while (options.outWidth / (sampleSize * 2) >= mTargetWidth
+                && options.outHeight / (sampleSize * 2) >= mTargetHeight) {
+            sampleSize *= 2;
+        }
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        // Covers have no transparency, half the memory of ARGB_8888
+        options.inPreferredConfig = Bitmap.Config.RGB_565;
+        return BitmapFactory.decodeFile(file.getPath(), options);
+    }
+
+    /**
+     * Mark the file as recently used, return false if it isn't on disk
+     */
+    private synchronized boolean touchDiskEntry(File file) {
+        readDiskEntries();
+        return mDiskEntries.get(file.getName()) != null && file.exists();
+    }
+
+    /**
+     * Move the downloaded file in place and evict the least recently used images over the budget
+     */
+    private synchronized void addDiskEntry(File tempFile, File file) throws IOException {
+        readDiskEntries();
+        if (!tempFile.renameTo(file)) {
+            tempFile.delete();
+            throw new IOException("Can't rename " + tempFile);
+        }
+        Long previous = mDiskEntries.put(file.getName(), file.length());
+        if (previous != null) {
+            mDiskSize -= previous;
+        }
+        mDiskSize += file.length();
+        Iterator<Map.Entry<String, Long>> iterator = mDiskEntries.entrySet().iterator();
+        while (mDiskSize > DISK_CACHE_SIZE && iterator.hasNext()) {
+            Map.Entry<String, Long> eldest = iterator.next();
+            if (eldest.getKey().equals(file.getName())) {
+                continue;
+            }
+            iterator.remove();
+            mDiskSize -= eldest.getValue();
+            new File(mDiskDirectory, eldest.getKey()).delete();
+        }
+    }
+
+    /**
+     * Read the images left by a previous run, least recently modified first
+     */
+    private void readDiskEntries() {
+        if (mDiskEntriesRead) {
+            return;
+        }
+        mDiskEntriesRead = true;
+        if (!mDiskDirectory.isDirectory() && !mDiskDirectory.mkdirs()) {
+            Log.e(LOG_TAG, "Can't create the thumbnail directory");
+            return;
+        }
+        File[] files = mDiskDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        List<File> images = new ArrayList<>(Arrays.asList(files));
+        Collections.sort(images, new Comparator<File>() {
+            @Override
+            public int compare(File first, File second) {
+                return Long.compare(first.lastModified(), second.lastModified());
+            }
+        });
+        for (File image : images) {
+            if (image.getName().contains(".tmp")) {
+                // Left over by a download that didn't finish
+                image.delete();
+            } else {
+                mDiskEntries.put(image.getName(), image.length());
+                mDiskSize += image.length();
+            }
+        }
+    }
+
+    /**
+     * Return the file name of an image, the hex SHA-1 of its URL
+     */
+    private static String fileName(String url) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(url.getBytes(UTF_8));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(String.format(Locale.US, "%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return Integer.toHexString(url.hashCode());
+        }
+    }
+
+    /**
+     * The image of one view
+     */
+    private final class Request implements Runnable {
+
+        private final String mUrl;
+
+        /**
+         * Only used on the main thread
+         */
+        private ImageView mImageView;
+        private Future<?> mFuture;
+
+        private volatile boolean mCanceled;
+
+        Request(String url, ImageView imageView) {
+            mUrl = url;
+            mImageView = imageView;
+        }
+
+        /**
+         * Called on the main thread
+         */
+        void cancel() {
+            mCanceled = true;
+            mImageView = null;
+            if (mFuture != null) {
+                // A request still in the queue never starts
+                mFuture.cancel(false);
+                mExecutor.remove((Runnable) mFuture);
+            }
+        }
+
+        @Override
+        public void run() {
+            if (mCanceled) {
+                return;
+            }
+            Bitmap bitmap = null;
+            try {
+                bitmap = loadBitmap(this);
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "Problem loading the thumbnail " + mUrl, e);
+            }
+            if (bitmap == null) {
+                return;
+            }
+            mMemoryCache.put(mUrl, bitmap);
+            final Bitmap result = bitmap;
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (!mCanceled && mImageView != null && mImageView.getTag(R.id.thumbnail) == Request.this) {
+                        mImageView.setImageBitmap(result);
+                        mImageView.setTag(R.id.thumbnail, null);
+                    }
+                }
+            });
+        }
+    }
+}
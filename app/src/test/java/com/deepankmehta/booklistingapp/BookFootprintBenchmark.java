@@ -0,0 +1,135 @@
+/*
+ * Copyright 2018 Deepank Mehta. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * You may not use this file; except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * Distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * Limitations under the License.
+ */
+
+package com.deepankmehta.booklistingapp;
+
+import com.deepankmehta.booklistingapp.core.Book;
+
+import org.junit.Test;
+
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Heap retained per {@link Book}, next to the layout it had with a boxed price and a copy of the
+ * currency and language codes in every book, run on the host JVM:
+ * ./gradlew :app:testDebugUnitTest -Dbenchmark=true --tests '*BookFootprintBenchmark*'
+ * The numbers depend on the JVM, the ones in the history were measured on a 64-bit HotSpot
+ * with compressed oops, -Xmx512m and the serial collector.
+ */
+public class BookFootprintBenchmark {
+
+    private static final int BOOK_COUNT = 100000;
+
+    private static final String[] CURRENCIES = {"INR", "USD", "EUR", "GBP"};
+    private static final String[] LANGUAGES = {"en", "hi", "fr"};
+
+    /**
+     * Creates the i-th object to measure
+     */
+    interface Factory {
+        Object create(int i);
+    }
+
+    @Test
+    public void bytesPerBook() {
+        assumeTrue("Run with -Dbenchmark=true", Boolean.getBoolean("benchmark"));
+
+        // The strings of a book, without the codes, for the overhead apart from the text
+        long strings = bytesPerObject(new Factory() {
+            @Override
+            public Object create(int i) {
+                return new String[]{"id" + i, "Title " + i, "Author " + i, "http://x/" + i};
+            }
+        });
+        long legacy = bytesPerObject(new Factory() {
+            @Override
+            public Object create(int i) {
+                // Every parsed response has its own copies of the codes
+                return new LegacyBook("id" + i, "Title " + i, "Author " + i, price(i),
+                        new String(CURRENCIES[i % CURRENCIES.length]), new String(LANGUAGES[i % LANGUAGES.length]),
+                        "http://x/" + i);
+            }
+        });
+        long current = bytesPerObject(new Factory() {
+            @Override
+            public Object create(int i) {
+                return new Book("id" + i, "Title " + i, "Author " + i, price(i),
+                        new String(CURRENCIES[i % CURRENCIES.length]), new String(LANGUAGES[i % LANGUAGES.length]),
+                        "http://x/" + i, null);
+            }
+        });
+
+        System.out.println("strings and array: " + strings + " bytes per book");
+        System.out.println("boxed price, own codes: " + legacy + " bytes per book");
+        System.out.println("current Book: " + current + " bytes per book");
+    }
+
+    private static double price(int i) {
+        return i % 1000 + 0.99;
+    }
+
+    /**
+     * Return the heap retained by each of BOOK_COUNT objects of the factory
+     */
+    private static long bytesPerObject(Factory factory) {
+        Object[] objects = new Object[BOOK_COUNT];
+        long before = usedMemory();
+        for (int i = 0; i < BOOK_COUNT; i++) {
+            objects[i] = factory.create(i);
+        }
+        long after = usedMemory();
+        // Keep the objects reachable until they have been measured
+        if (objects[BOOK_COUNT - 1] == null) {
+            throw new AssertionError();
+        }
+        return (after - before) / BOOK_COUNT;
+    }
+
+    private static long usedMemory() {
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Fields of a book before it was made compact
+     */
+    @SuppressWarnings("unused")
+    private static final class LegacyBook {
+        private final String volumeId;
+        private final String title;
+        private final String author;
+        private final Double price;
+        private final String currency;
+        private final String language;
+        private final String urlBook;
+
+        LegacyBook(String volumeId, String title, String author, Double price, String currency,
+                   String language, String urlBook) {
+            this.volumeId = volumeId;
+            this.title = title;
+            this.author = author;
+            this.price = price;
+            this.currency = currency;
+            this.language = language;
+            this.urlBook = urlBook;
+        }
+    }
+}
@@ -0,0 +1,304 @@
+/*
+ * Copyright 2018 Deepank Mehta. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * You may not use this file; except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * Distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * Limitations under the License.
+ */
+
+package com.deepankmehta.booklistingapp;
+
+import com.deepankmehta.booklistingapp.core.Book;
+import com.deepankmehta.booklistingapp.core.BookStreamParser;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Throughput, latency and allocation of the response parsers on the checked in corpus,
+ * run on the host JVM:
+ * ./gradlew :app:testDebugUnitTest -Dbenchmark=true --tests '*ParserBenchmark*'
+ * The results are written as JSON to build/benchmark/parser-benchmark.json, or to -Dbenchmark.output.
+ */
+public class ParserBenchmark {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Time spent warming up and measuring each parser on each corpus
+     */
+    private static final long WARMUP_MILLIS = Long.getLong("benchmark.warmupMillis", 2000);
+    private static final long MEASURE_MILLIS = Long.getLong("benchmark.measureMillis", 3000);
+    private static final int MIN_ITERATIONS = 10;
+
+    private static final String DEFAULT_OUTPUT = "build/benchmark/parser-benchmark.json";
+
+    /**
+     * A parser under test, returning the number of books of the response
+     */
+    interface Parser {
+        int parse(byte[] body) throws Exception;
+    }
+
+    /**
+     * The parsers under test, by name
+     */
+    static Map<String, Parser> parsers() {
+        Map<String, Parser> parsers = new LinkedHashMap<>();
+        parsers.put("tree", new Parser() {
+            @Override
+            public int parse(byte[] body) {
+                // The tree parser needs the whole body as a String first
+                List<Book> books = TreeParser.extractBookFromJson(new String(body, UTF_8));
+                return books != null ? books.size() : 0;
+            }
+        });
+        parsers.put("stream", new Parser() {
+            @Override
+            public int parse(byte[] body) throws IOException {
+                return BookStreamParser.parse(new ByteArrayInputStream(body)).size();
+            }
+        });
+        return parsers;
+    }
+
+    /**
+     * The responses, by name. The larger ones repeat the 40 items of the base response with new ids.
+     */
+    static Map<String, byte[]> corpus() throws IOException {
+        byte[] base = readResource("corpus/volumes_40.json");
+        Map<String, byte[]> corpus = new LinkedHashMap<>();
+        corpus.put("items_40", base);
+        corpus.put("items_400", replicate(base, 10));
+        corpus.put("items_4000", replicate(base, 100));
+        corpus.put("missing_fields_40", readResource("corpus/volumes_40_missing_fields.json"));
+        corpus.put("wrong_types_40", readResource("corpus/volumes_40_wrong_types.json"));
+        corpus.put("truncated_40", readResource("corpus/volumes_40_truncated.json"));
+        return corpus;
+    }
+
+    @Test
+    public void parsersReadEveryItemOfTheCorpus() throws Exception {
+        Map<String, byte[]> corpus = corpus();
+        for (Map.Entry<String, Parser> parser : parsers().entrySet()) {
+            assertEquals(parser.getKey(), 40, parser.getValue().parse(corpus.get("items_40")));
+            assertEquals(parser.getKey(), 4000, parser.getValue().parse(corpus.get("items_4000")));
+        }
+    }
+
+    @Test
+    public void benchmarkParsers() throws Exception {
+        assumeTrue("Run with -Dbenchmark=true", Boolean.getBoolean("benchmark"));
+        run(parsers(), corpus(), new File(System.getProperty("benchmark.output", DEFAULT_OUTPUT)));
+    }
+
+    public static void main(String[] args) throws Exception {
+        run(parsers(), corpus(), new File(args.length > 0 ? args[0] : DEFAULT_OUTPUT));
+    }
+
+    static List<Result> run(Map<String, Parser> parsers, Map<String, byte[]> corpus, File output) throws IOException {
+        List<Result> results = new ArrayList<>();
+        for (Map.Entry<String, byte[]> response : corpus.entrySet()) {
+            for (Map.Entry<String, Parser> parser : parsers.entrySet()) {
+                Result result = measure(parser.getKey(), parser.getValue(), response.getKey(), response.getValue());
+                System.out.println(result);
+                results.add(result);
+            }
+        }
+        writeJson(results, output);
+        System.out.println("Results written to " + output.getAbsolutePath());
+        return results;
+    }
+
+    static Result measure(String parserName, Parser parser, String corpusName, byte[] body) {
+        // Warm up, so the JIT has compiled the parse path
+        long warmupEnd = System.nanoTime() + WARMUP_MILLIS * 1000000;
+        while (System.nanoTime() < warmupEnd) {
+            parseQuietly(parser, body);
+        }
+
+        long[] latencies = new long[1024];
+        int iterations = 0;
+        int items = 0;
+        int failures = 0;
+        long allocatedBefore = allocatedBytes();
+        long start = System.nanoTime();
+        long measureEnd = start + MEASURE_MILLIS * 1000000;
+        long now = start;
+        while (now < measureEnd || iterations < MIN_ITERATIONS) {
+            int parsed = parseQuietly(parser, body);
+            long end = System.nanoTime();
+            if (iterations == latencies.length) {
+                latencies = Arrays.copyOf(latencies, latencies.length * 2);
+            }
+            latencies[iterations++] = end - now;
+            now = end;
+            if (parsed < 0) {
+                failures++;
+            } else {
+                items = parsed;
+            }
+        }
+        long elapsed = now - start;
+        long allocated = allocatedBytes() - allocatedBefore;
+
+        long[] sorted = Arrays.copyOf(latencies, iterations);
+        Arrays.sort(sorted);
+        Result result = new Result();
+        result.parser = parserName;
+        result.corpus = corpusName;
+        result.bytes = body.length;
+        result.items = items;
+        result.failures = failures;
+        result.iterations = iterations;
+        result.opsPerSecond = iterations * 1e9 / elapsed;
+        result.itemsPerSecond = result.opsPerSecond * items;
+        result.megabytesPerSecond = result.opsPerSecond * body.length / (1024 * 1024);
+        result.p50Micros = sorted[(int) (iterations * 0.5)] / 1000.0;
+        result.p90Micros = sorted[(int) (iterations * 0.9)] / 1000.0;
+        result.p99Micros = sorted[Math.min(iterations - 1, (int) (iterations * 0.99))] / 1000.0;
+        result.allocatedBytesPerOp = allocatedBefore >= 0 ? allocated / iterations : -1;
+        return result;
+    }
+
+    /**
+     * Return the number of books, or -1 if the parser threw, like a malformed response in the app
+     */
+    private static int parseQuietly(Parser parser, byte[] body) {
+        try {
+            return parser.parse(body);
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Return the bytes allocated by this thread so far, or -1 if the JVM doesn't report it
+     */
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        if (threadBean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threadBean)
+                    .getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    /**
+     * Return the response with its items repeated the given number of times, each copy with new volume ids
+     */
+    @SuppressWarnings("deprecation")
+    static byte[] replicate(byte[] body, int copies) {
+        JsonObject response = new JsonParser().parse(new String(body, UTF_8)).getAsJsonObject();
+        JsonArray items = response.getAsJsonArray("items");
+        JsonArray replicated = new JsonArray();
+        for (int copy = 0; copy < copies; copy++) {
+            for (JsonElement item : items) {
+                JsonObject itemCopy = item.getAsJsonObject().deepCopy();
+                itemCopy.addProperty("id", itemCopy.get("id").getAsString() + "-" + copy);
+                replicated.add(itemCopy);
+            }
+        }
+        response.add("items", replicated);
+        return response.toString().getBytes(UTF_8);
+    }
+
+    private static byte[] readResource(String name) throws IOException {
+        InputStream input = ParserBenchmark.class.getClassLoader().getResourceAsStream(name);
+        if (input == null) {
+            throw new IOException("Missing resource " + name);
+        }
+        try {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                output.write(buffer, 0, read);
+            }
+            return output.toByteArray();
+        } finally {
+            input.close();
+        }
+    }
+
+    private static void writeJson(List<Result> results, File output) throws IOException {
+        File directory = output.getAbsoluteFile().getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Can't create " + directory);
+        }
+        Writer writer = new OutputStreamWriter(new FileOutputStream(output), UTF_8);
+        try {
+            writer.write("[\n");
+            for (int i = 0; i < results.size(); i++) {
+                writer.write("  " + results.get(i).toJson() + (i < results.size() - 1 ? ",\n" : "\n"));
+            }
+            writer.write("]\n");
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Measurements of one parser on one response
+     */
+    static final class Result {
+        String parser;
+        String corpus;
+        int bytes;
+        int items;
+        int failures;
+        int iterations;
+        double opsPerSecond;
+        double itemsPerSecond;
+        double megabytesPerSecond;
+        double p50Micros;
+        double p90Micros;
+        double p99Micros;
+        long allocatedBytesPerOp;
+
+        String toJson() {
+            return String.format(Locale.US, "{\"parser\": \"%s\", \"corpus\": \"%s\", \"bytes\": %d, \"items\": %d, "
+                            + "\"failures\": %d, \"iterations\": %d, \"ops_per_s\": %.1f, \"items_per_s\": %.1f, "
+                            + "\"mb_per_s\": %.2f, \"p50_us\": %.1f, \"p90_us\": %.1f, \"p99_us\": %.1f, "
+                            + "\"allocated_bytes_per_op\": %d}",
+                    parser, corpus, bytes, items, failures, iterations, opsPerSecond, itemsPerSecond,
+                    megabytesPerSecond, p50Micros, p90Micros, p99Micros, allocatedBytesPerOp);
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%-6s %-18s %8d items %9.1f ops/s %7.2f MB/s p50 %9.1f us "
+                            + "p99 %9.1f us %10d B/op %d failures",
+                    parser, corpus, items, opsPerSecond, megabytesPerSecond, p50Micros, p99Micros,
+                    allocatedBytesPerOp, failures);
+        }
+    }
+}
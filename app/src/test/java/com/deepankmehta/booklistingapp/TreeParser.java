@@ -0,0 +1,146 @@
+/*
+ * Copyright 2018 Deepank Mehta. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * You may not use this file; except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * Distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * Limitations under the License.
+ */
+
+package com.deepankmehta.booklistingapp;
+
+import com.deepankmehta.booklistingapp.core.Book;
+import com.deepankmehta.booklistingapp.core.BookStreamParser;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The org.json tree parser the app used before {@link BookStreamParser}, kept as the baseline
+ * of the {@link ParserBenchmark}. It needs the whole response as a String.
+ */
+final class TreeParser {
+
+    private TreeParser() {
+    }
+
+    /**
+     * Return the books of the bookJSON string, or null if it is empty
+     */
+    static List<Book> extractBookFromJson(String bookJSON) {
+        // If the JSON string is empty or null, then return early.
+        if (bookJSON == null || bookJSON.isEmpty()) {
+            return null;
+        }
+
+        // Create an empty ArrayList that we can start adding books to
+        List<Book> books = new ArrayList<>();
+
+        // Try to parse the JSON response string. If there's a problem with the way the JSON
+        // is formatted, a JSONException exception object will be thrown.
+        // Catch the exception so the app doesn't crash, and print the error message to the logs.
+        try {
+
+            // Create a JSONObject from the JSON response string
+            JSONObject baseJsonResponse = new JSONObject(bookJSON);
+
+            // Extract the JSONArray associated with the key called "items",
+            // which represents a list of books.
+            JSONArray booksArray = baseJsonResponse.getJSONArray("items");
+
+            // For each book in the booksArray, create an {@link Book} object
+            for (int i = 0; i < booksArray.length(); i++) {
+
+                // Get a single book at position i within the list of items (books)
+                JSONObject currentBook = booksArray.getJSONObject(i);
+
+                // For a given book, extract the JSONObject associated with the
+                // key called "volumeInfo", which represents a list of all properties
+                // for that book. + [authors] list
+                JSONObject volumeInfo = currentBook.getJSONObject("volumeInfo");
+
+                // Extract the value for the key called "author"
+                String author;
+
+                // Check if JSONArray exist
+                if (volumeInfo.has("authors")) {
+                    JSONArray authors = volumeInfo.getJSONArray("authors");
+
+                    // Check JSONArray Returns true if this object has no mapping for name or if it has a mapping whose value is NULL
+                    if (!volumeInfo.isNull("authors")) {
+                        // Join all the elements
+                        StringBuilder authorNames = new StringBuilder(authors.getString(0));
+                        for (int j = 1; j < authors.length(); j++) {
+                            authorNames.append(Book.AUTHOR_SEPARATOR).append(authors.getString(j));
+                        }
+                        author = authorNames.toString();
+                    } else {
+                        // assign info about missing info about author
+                        author = BookStreamParser.UNKNOWN_AUTHOR;
+                    }
+                } else {
+                    // assign info about missing info about author
+                    author = BookStreamParser.MISSING_AUTHORS;
+                }
+
+
+                // For a given book, extract the JSONObject associated with the
+                // key called "saleInfo", which represents a list of region and object RetailPrice{amount, currency}
+                JSONObject saleInfo = currentBook.getJSONObject("saleInfo");
+                JSONObject retailPrice = saleInfo.getJSONObject("retailPrice");
+
+
+                // Extract the value for the key called "title"
+                String title = volumeInfo.getString("title");
+
+                // Extract the value for the key called "language"
+                String language = volumeInfo.getString("language");
+
+                // Extract the value for the key called "amount"
+                double amount = retailPrice.getDouble("amount");
+
+                // Extract the value for the key called "currencyCode"
+                String currency = retailPrice.getString("currencyCode");
+
+
+
+                // Extract the value for the key called "buyLink"
+                String buyLink = (String) saleInfo.get("buyLink");
+
+                // Extract the value for the key called "id"
+                String volumeId = currentBook.optString("id", null);
+
+                // Extract the small cover image, if there is one
+                String thumbnailUrl = null;
+                JSONObject imageLinks = volumeInfo.optJSONObject("imageLinks");
+                if (imageLinks != null) {
+                    thumbnailUrl = BookStreamParser.secureUrl(imageLinks.optString("smallThumbnail",
+                            imageLinks.optString("thumbnail", null)));
+                }
+
+                // Create a new {@link Book} object with the title, author, coverImageUrl, price, currency and language
+                // and url from the JSON response.
+                Book bookItem = new Book(volumeId, title, author, amount, currency, language, buyLink, thumbnailUrl);
+
+                // Add the new {@link Book} to the list of booksList.
+                books.add(bookItem);
+
+            }
+
+        } catch (JSONException e) {
+            // Like the app did, keep the books parsed before the error
+            System.err.println("Problem parsing the book JSON results: " + e);
+        }
+
+        // Return the list of books (booksList)
+        return books;
+    }
+}
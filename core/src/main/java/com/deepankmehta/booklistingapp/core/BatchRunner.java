@@ -0,0 +1,261 @@
+/*
+ * Copyright 2018 Deepank Mehta. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * You may not use this file; except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * Distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * Limitations under the License.
+ */
+package com.deepankmehta.booklistingapp.core;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Headless runner that sends a batch of searches through {@link BookClient} from a plain JVM
+ * and reports the throughput and the latency percentiles.
+ * <p>
+ * Options: --endpoint URL, --queries FILE (one search per line), --requests N,
+ * --concurrency N, --max-results N, --lean true|false, and for the {@link RetryPolicy}
+ * --attempts N, --deadline MILLIS, --hedge true|false
+ */
+public final class BatchRunner {
+
+    /**
+     * Searches used when no query file is given
+     */
+    private static final String[] DEFAULT_QUERIES = {
+            "android", "java", "kotlin", "history", "science fiction", "cooking", "poetry", "economics",
+            "astronomy", "chess", "gardening", "philosophy", "travel", "mathematics", "design", "music"
+    };
+
+    private String mEndpoint = BookClient.DEFAULT_ENDPOINT;
+    private List<String> mQueries = Arrays.asList(DEFAULT_QUERIES);
+    private int mRequests = -1;
+    private int mConcurrency = 64;
+    private int mMaxResults = 40;
+    private int mMaxAttempts = RetryPolicy.DEFAULT.getMaxAttempts();
+    private long mDeadlineMillis = RetryPolicy.DEFAULT.getDeadlineMillis();
+    private boolean mHedging = RetryPolicy.DEFAULT.isHedging();
+
+    private BatchRunner() {
+    }
+
+    /**
+     * Runner of the given number of requests against another endpoint, with the current retry policy
+     */
+    BatchRunner(String endpoint, int requests, int concurrency, int maxResults) {
+        mEndpoint = endpoint;
+        mRequests = requests;
+        mConcurrency = concurrency;
+        mMaxResults = maxResults;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        BatchRunner runner = new BatchRunner();
+        runner.parseArguments(args);
+        PrintWriter writer = new PrintWriter(System.out, true);
+        runner.run().print(writer);
+        BookMetrics.dump("", writer);
+        writer.flush();
+    }
+
+    private void parseArguments(String[] args) throws IOException {
+        for (int i = 0; i < args.length; i++) {
+            String option = args[i];
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value of " + option);
+            }
+            String value = args[++i];
+            switch (option) {
+                case "--endpoint":
+                    mEndpoint = value;
+                    break;
+                case "--queries":
+                    mQueries = readQueries(value);
+                    break;
+                case "--requests":
+                    mRequests = Integer.parseInt(value);
+                    break;
+                case "--concurrency":
+                    mConcurrency = Integer.parseInt(value);
+                    break;
+                case "--max-results":
+                    mMaxResults = Integer.parseInt(value);
+                    break;
+                case "--lean":
+                    BookClient.setLeanTransport(Boolean.parseBoolean(value));
+                    break;
+                case "--attempts":
+                    mMaxAttempts = Integer.parseInt(value);
+                    break;
+                case "--deadline":
+                    mDeadlineMillis = Long.parseLong(value);
+                    break;
+                case "--hedge":
+                    mHedging = Boolean.parseBoolean(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + option);
+            }
+        }
+        if (mQueries.isEmpty()) {
+            throw new IllegalArgumentException("No queries");
+        }
+        if (mRequests < 0) {
+            mRequests = mQueries.size();
+        }
+        BookClient.setRetryPolicy(new RetryPolicy(mMaxAttempts, 250, 4000, mDeadlineMillis, mHedging));
+    }
+
+    private static List<String> readQueries(String path) throws IOException {
+        List<String> queries = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(path), Charset.forName("UTF-8")));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (!line.isEmpty()) {
+                    queries.add(line);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return queries;
+    }
+
+    /**
+     * Send every request and wait for the last one
+     */
+    Report run() throws InterruptedException {
+        final long[] latencies = new long[mRequests];
+        final AtomicInteger failures = new AtomicInteger();
+        final AtomicLong items = new AtomicLong();
+        final CountDownLatch done = new CountDownLatch(mRequests);
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, mConcurrency));
+        long wireBytes = BookClient.getWireBytes();
+
+        long startNanos = System.nanoTime();
+        for (int i = 0; i < mRequests; i++) {
+            final int request = i;
+            final String url = BookClient.buildQueryUrl(mEndpoint, encode(mQueries.get(i % mQueries.size())),
+                    mMaxResults);
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    long requestNanos = System.nanoTime();
+                    try {
+                        List<Book> books = BookClient.fetch(url, null, null);
+                        if (books == null) {
+                            failures.incrementAndGet();
+                        } else {
+                            items.addAndGet(books.size());
+                        }
+                    } catch (RuntimeException e) {
+                        failures.incrementAndGet();
+                    } finally {
+                        latencies[request] = System.nanoTime() - requestNanos;
+                        done.countDown();
+                    }
+                }
+            });
+        }
+        done.await();
+        long elapsedNanos = System.nanoTime() - startNanos;
+        executor.shutdown();
+
+        Arrays.sort(latencies);
+        return new Report(mConcurrency, failures.get(), items.get(), BookClient.getWireBytes() - wireBytes,
+                elapsedNanos, latencies);
+    }
+
+    /**
+     * Outcome of a run
+     */
+    static final class Report {
+        final int concurrency;
+        final int failures;
+        final long items;
+        final long wireBytes;
+        final long elapsedNanos;
+
+        /**
+         * Latency of every request in nanoseconds, sorted
+         */
+        private final long[] mLatencies;
+
+        Report(int concurrency, int failures, long items, long wireBytes, long elapsedNanos, long[] latencies) {
+            this.concurrency = concurrency;
+            this.failures = failures;
+            this.items = items;
+            this.wireBytes = wireBytes;
+            this.elapsedNanos = elapsedNanos;
+            mLatencies = latencies;
+        }
+
+        int requests() {
+            return mLatencies.length;
+        }
+
+        double requestsPerSecond() {
+            return requests() / seconds();
+        }
+
+        double itemsPerSecond() {
+            return items / seconds();
+        }
+
+        private double seconds() {
+            return elapsedNanos / 1e9;
+        }
+
+        /**
+         * Nearest rank percentile of the latencies, in milliseconds
+         */
+        double percentileMillis(int percentile) {
+            if (mLatencies.length == 0) {
+                return 0;
+            }
+            int rank = (int) Math.ceil(percentile / 100.0 * mLatencies.length);
+            return mLatencies[Math.max(0, rank - 1)] / (double) TimeUnit.MILLISECONDS.toNanos(1);
+        }
+
+        void print(PrintWriter writer) {
+            writer.printf("%d requests, %d failed, concurrency %d, %.2f s%n",
+                    requests(), failures, concurrency, seconds());
+            writer.printf("throughput: %.1f requests/s, %.1f items/s, %d bytes on the wire%n",
+                    requestsPerSecond(), itemsPerSecond(), wireBytes);
+            writer.printf("latency ms: p50 %.1f, p95 %.1f, p99 %.1f, max %.1f%n",
+                    percentileMillis(50), percentileMillis(95), percentileMillis(99), percentileMillis(100));
+        }
+    }
+
+    private static String encode(String query) {
+        try {
+            return URLEncoder.encode(query, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2018 Deepank Mehta. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * You may not use this file; except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * Distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * Limitations under the License.
+ */
+
+package com.deepankmehta.booklistingapp.core;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A paid ebook of a search result
+ */
+public class Book {
+
+    /**
+     * Separator between the names of a book with several authors, a control character
+     * so a name with a comma like "Martin Luther King, Jr." stays in one piece
+     */
+    public static final String AUTHOR_SEPARATOR = "\u001F";
+
+    /**
+     * Separator between the names shown to the user
+     */
+    private static final String DISPLAY_SEPARATOR = ", ";
+
+    /**
+     * Shared instances of the currency and language codes, there are only a few dozen of them
+     */
+    private static final int MAX_CODES = 512;
+    private static final ConcurrentHashMap<String, String> sCodes = new ConcurrentHashMap<>();
+
+    /**
+     * Google Books volume id
+     */
+    private final String volumeId;
+    /**
+     * Title of the book
+     */
+    private final String title;
+    /**
+     * Authors of the book, separated by AUTHOR_SEPARATOR
+     */
+    private final String author;
+    /**
+     * Price of the book in hundredths of the currency, whatever the number of decimals of the currency
+     */
+    private final long priceHundredths;
+    /**
+     * Currency code of the price, shared between books
+     */
+    private final String currency;
+    /**
+     * Country code of language, shared between books
+     */
+    private final String language;
+    /**
+     * Url of the book
+     */
+    private final String urlBook;
+    /**
+     * Url of the small cover image, or null if there is none
+     */
+    private final String thumbnailUrl;
+
+
+    public Book(String id, String bookTitle, String authorNames, double bookPrice, String currencyCode,
+                String languageCode, String buyLink, String coverUrl) {
+        volumeId = id;
+        title = bookTitle;
+        author = authorNames;
+        priceHundredths = Math.round(bookPrice * 100);
+        currency = intern(currencyCode);
+        language = intern(languageCode);
+        urlBook = buyLink;
+        thumbnailUrl = coverUrl;
+
+    }
+
+    /**
+     * Return the shared instance of a currency or language code
+     */
+    static String intern(String code) {
+        if (code == null) {
+            return null;
+        }
+        String shared = sCodes.get(code);
+        if (shared != null) {
+            return shared;
+        }
+        // Unexpected values are kept as they are instead of growing the table without limit
+        if (sCodes.size() >= MAX_CODES) {
+            return code;
+        }
+        shared = sCodes.putIfAbsent(code, code);
+        return shared != null ? shared : code;
+    }
+
+    // Getters
+    public String getVolumeId() {
+        return volumeId;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    /**
+     * Return the authors of the book as they are shown, separated by commas
+     */
+    public String getAuthor() {
+        if (author == null || !author.contains(AUTHOR_SEPARATOR)) {
+            return author;
+        }
+        return author.replace(AUTHOR_SEPARATOR, DISPLAY_SEPARATOR);
+    }
+
+    /**
+     * Return the authors of the book separated by AUTHOR_SEPARATOR, the form to store them in
+     */
+    public String getAuthorNames() {
+        return author;
+    }
+
+    public String[] getAuthors() {
+        return author != null ? author.split(AUTHOR_SEPARATOR) : new String[0];
+    }
+
+    public double getPrice() {
+        return priceHundredths / 100.0;
+    }
+
+    /**
+     * Return the price in hundredths of the currency, so 12.34 is 1234 in any currency
+     */
+    public long getPriceHundredths() {
+        return priceHundredths;
+    }
+
+    public String getCurrency() {
+        return currency;
+    }
+
+    public String getLanguage() {
+        return language;
+    }
+
+    public String getUrl() {
+        return urlBook;
+    }
+
+    public String getThumbnailUrl() {
+        return thumbnailUrl;
+    }
+}
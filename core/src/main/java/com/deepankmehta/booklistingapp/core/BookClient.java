@@ -0,0 +1,747 @@
+/*
+ * Copyright 2018 Deepank Mehta. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * You may not use this file; except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * Distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * Limitations under the License.
+ */
+package com.deepankmehta.booklistingapp.core;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Fetches and parses search results of the Google Books API, or of any server speaking its format
+ */
+public final class BookClient {
+
+    // Tag for the log messages
+    private static final String LOG_TAG = BookClient.class.getSimpleName();
+
+    /**
+     * Volumes endpoint of the Google Books API
+     */
+    public static final String DEFAULT_ENDPOINT = "https://www.googleapis.com/books/v1/volumes";
+
+    /**
+     * Partial response projection, the only fields read by {@link BookStreamParser}
+     */
+    private static final String BOOK_FIELDS =
+            "items(id,volumeInfo(title,authors,language,imageLinks(smallThumbnail,thumbnail)),saleInfo(retailPrice,buyLink))";
+
+    /**
+     * Same projection without the cover images, for slow networks
+     */
+    private static final String BOOK_FIELDS_WITHOUT_IMAGES =
+            "items(id,volumeInfo(title,authors,language),saleInfo(retailPrice,buyLink))";
+
+    /**
+     * Socket timeouts, shortened to what is left of the deadline of a search
+     */
+    private static final int READ_TIMEOUT = 10000;
+    private static final int CONNECT_TIMEOUT = 20000;
+
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    /**
+     * Hedging needs this many samples of the time to first byte to pick its delay
+     */
+    private static final int MIN_HEDGE_SAMPLES = 20;
+
+    private static volatile RetryPolicy sRetryPolicy = RetryPolicy.DEFAULT;
+
+    /**
+     * Threads of the hedged requests and of the hedge and deadline timers, they don't keep a JVM alive
+     */
+    private static final ThreadFactory sThreadFactory = new ThreadFactory() {
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "BookClient #" + mCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    };
+    private static final ScheduledExecutorService sTimers = Executors.newSingleThreadScheduledExecutor(sThreadFactory);
+    private static final ExecutorService sHedgeExecutor = Executors.newCachedThreadPool(sThreadFactory);
+
+    /**
+     * Request gzip and a field projection, and keep connections alive across searches
+     */
+    private static volatile boolean sLeanTransport = true;
+
+    /**
+     * Transfer counters
+     */
+    private static final AtomicLong sRequestCount = new AtomicLong();
+    private static final AtomicLong sWireBytes = new AtomicLong();
+    private static final AtomicLong sBodyBytes = new AtomicLong();
+
+    private BookClient() {
+    }
+
+    /**
+     * Return the request URL of a search, limited to the fields read by {@link BookStreamParser}
+     * when the lean transport is on. The search value must already be URL encoded.
+     */
+    public static String buildQueryUrl(String searchValue, int maxResults) {
+        return buildQueryUrl(DEFAULT_ENDPOINT, searchValue, maxResults);
+    }
+
+    /**
+     * Same as {@link #buildQueryUrl(String, int)} against another volumes endpoint
+     */
+    public static String buildQueryUrl(String endpoint, String searchValue, int maxResults) {
+        return buildQueryUrl(endpoint, searchValue, maxResults, true);
+    }
+
+    /**
+     * Same as {@link #buildQueryUrl(String, String, int)}, leaving the cover images out of the
+     * projection unless withImages is true
+     */
+    public static String buildQueryUrl(String endpoint, String searchValue, int maxResults, boolean withImages) {
+        StringBuilder stringBuilder = new StringBuilder();
+        stringBuilder.append(endpoint).append("?q=").append(searchValue)
+                .append("&filter=paid-ebooks&maxResults=").append(maxResults);
+        if (sLeanTransport) {
+            stringBuilder.append("&fields=").append(withImages ? BOOK_FIELDS : BOOK_FIELDS_WITHOUT_IMAGES);
+        }
+        return stringBuilder.toString();
+    }
+
+    /**
+     * Query the URL and return the list of books, or null if they couldn't be fetched,
+     * reporting every book to the listener as soon as it has been parsed.
+     * Transient failures are retried and a slow request may be hedged, as set by the {@link RetryPolicy},
+     * within the deadline of the policy.
+     * Cancelling the token closes the connection and throws a FetchCanceledException.
+     */
+    public static BookList fetch(String requestUrl, BookStreamParser.Listener listener,
+                                 CancellationToken cancellationToken) {
+        URL url = createUrl(requestUrl);
+        if (url == null) {
+            return null;
+        }
+
+        RetryPolicy policy = sRetryPolicy;
+        long deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(policy.getDeadlineMillis());
+        ListenerGate listenerGate = new ListenerGate(listener);
+        for (int attempt = 1; ; attempt++) {
+            long hedgeDelayMillis = policy.isHedging() ? hedgeDelayMillis() : 0;
+            Response response = new Exchange(url, listenerGate, deadlineNanos).run(cancellationToken, hedgeDelayMillis);
+            if (response.books != null) {
+                return response.books;
+            }
+            if (response.expired) {
+                BookMetrics.DEADLINE_EXPIRED.incrementAndGet();
+                BookLog.e(LOG_TAG, "Deadline passed after " + attempt + " attempts");
+                return null;
+            }
+            // Books already handed to the listener can't be taken back, so such a response isn't retried
+            if (!response.retryable || attempt >= policy.getMaxAttempts() || listenerGate.hasDelivered()) {
+                return null;
+            }
+            long delayMillis = response.retryAfterMillis >= 0 ? response.retryAfterMillis
+                    : policy.backoffMillis(attempt - 1);
+            if (System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis) >= deadlineNanos) {
+                BookMetrics.DEADLINE_EXPIRED.incrementAndGet();
+                BookLog.e(LOG_TAG, "No time left to retry after " + attempt + " attempts");
+                return null;
+            }
+            BookMetrics.RETRIES.incrementAndGet();
+            sleep(delayMillis, cancellationToken);
+        }
+    }
+
+    /**
+     * Resolve the host of the URL and open a connection to it, so the first search doesn't wait
+     * for DNS, TCP and TLS. Best effort, blocks until connected: call it off the main thread.
+     */
+    public static void preconnect(String requestUrl) {
+        URL url = createUrl(requestUrl);
+        // Without keep-alive the connection wouldn't be reused
+        if (url == null || !sLeanTransport) {
+            return;
+        }
+        long startNanos = System.nanoTime();
+        HttpURLConnection urlConnection = null;
+        try {
+            // The addresses stay in the resolver cache even if the connection fails
+            InetAddress.getAllByName(url.getHost());
+            // A HEAD request has no body, its connection goes back to the pool once the headers are read
+            urlConnection = (HttpURLConnection) url.openConnection();
+            urlConnection.setConnectTimeout(CONNECT_TIMEOUT);
+            urlConnection.setReadTimeout(READ_TIMEOUT);
+            urlConnection.setRequestMethod("HEAD");
+            int responseCode = urlConnection.getResponseCode();
+            InputStream body = responseCode < HttpURLConnection.HTTP_BAD_REQUEST
+                    ? urlConnection.getInputStream() : urlConnection.getErrorStream();
+            if (body != null) {
+                body.close();
+            }
+            if (BookLog.isDebugEnabled()) {
+                BookLog.d(LOG_TAG, "Connected to " + url.getHost() + " in "
+                        + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos) + " ms");
+            }
+        } catch (IOException e) {
+            // The first search connects on its own
+            if (urlConnection != null) {
+                urlConnection.disconnect();
+            }
+            if (BookLog.isDebugEnabled()) {
+                BookLog.d(LOG_TAG, "Can't connect to " + url.getHost() + ": " + e);
+            }
+        }
+    }
+
+    /**
+     * Set how failed requests are retried and hedged
+     */
+    public static void setRetryPolicy(RetryPolicy retryPolicy) {
+        sRetryPolicy = retryPolicy;
+    }
+
+    public static RetryPolicy getRetryPolicy() {
+        return sRetryPolicy;
+    }
+
+    /**
+     * Time after which a request still waiting for its response headers gets a hedged second request:
+     * the 90th percentile of the time to first byte, once there are enough samples
+     */
+    private static long hedgeDelayMillis() {
+        BookMetrics.HistogramSnapshot firstByteTime = BookMetrics.FIRST_BYTE_TIME.snapshot();
+        if (firstByteTime.count < MIN_HEDGE_SAMPLES) {
+            return 0;
+        }
+        return Math.max(1, TimeUnit.MICROSECONDS.toMillis(firstByteTime.p90));
+    }
+
+    /**
+     * Wait before a retry, returning early with a FetchCanceledException if the token is cancelled
+     */
+    private static void sleep(long millis, CancellationToken cancellationToken) {
+        final CountDownLatch canceled = new CountDownLatch(1);
+        if (cancellationToken != null) {
+            cancellationToken.setOnCancelListener(new CancellationToken.OnCancelListener() {
+                @Override
+                public void onCancel() {
+                    canceled.countDown();
+                }
+            });
+        }
+        try {
+            canceled.await(millis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new FetchCanceledException();
+        } finally {
+            if (cancellationToken != null) {
+                cancellationToken.setOnCancelListener(null);
+            }
+        }
+        if (cancellationToken != null) {
+            cancellationToken.throwIfCanceled();
+        }
+    }
+
+    /**
+     * Returns the URL object
+     */
+    private static URL createUrl(String Url) {
+        URL url = null;
+        try {
+            url = new URL(Url);
+        } catch (MalformedURLException e) {
+            BookLog.e(LOG_TAG, "Problem building the URL");
+        }
+        return url;
+    }
+
+    /**
+     * Outcome of a request: the books, or whether it's worth trying again and when
+     */
+    private static final class Response {
+        static final Response FAILED = new Response(null, false, -1, false);
+        static final Response RETRYABLE = new Response(null, true, -1, false);
+        static final Response CANCELED = new Response(null, false, -1, false);
+        static final Response EXPIRED = new Response(null, false, -1, true);
+
+        final BookList books;
+        final boolean retryable;
+        final long retryAfterMillis;
+        final boolean expired;
+
+        Response(BookList books, boolean retryable, long retryAfterMillis, boolean expired) {
+            this.books = books;
+            this.retryable = retryable;
+            this.retryAfterMillis = retryAfterMillis;
+            this.expired = expired;
+        }
+    }
+
+    /**
+     * Hands the parsed books to the listener from one request only, the first one that parsed a book,
+     * so a hedged request doesn't report the same books twice
+     */
+    private static final class ListenerGate {
+        private final BookStreamParser.Listener mListener;
+        private Object mOwner;
+
+        ListenerGate(BookStreamParser.Listener listener) {
+            mListener = listener;
+        }
+
+        BookStreamParser.Listener forRequest(final Object request) {
+            if (mListener == null) {
+                return null;
+            }
+            return new BookStreamParser.Listener() {
+                @Override
+                public void onBookParsed(Book book) {
+                    if (claim(request)) {
+                        mListener.onBookParsed(book);
+                    }
+                }
+            };
+        }
+
+        private synchronized boolean claim(Object request) {
+            if (mOwner == null) {
+                mOwner = request;
+            }
+            return mOwner == request;
+        }
+
+        synchronized boolean hasDelivered() {
+            return mOwner != null;
+        }
+    }
+
+    /**
+     * One try of a search: the request on the calling thread, and maybe a hedged copy of it on
+     * another thread. The first one to parse the whole response wins and cancels the other.
+     */
+    private static final class Exchange {
+        private final URL mUrl;
+        private final ListenerGate mListenerGate;
+        private final long mDeadlineNanos;
+        private final Attempt mPrimary;
+
+        // Guarded by this
+        private Attempt mHedge;
+        private Attempt mWinner;
+        private boolean mClosed;
+
+        private volatile boolean mExpired;
+
+        Exchange(URL url, ListenerGate listenerGate, long deadlineNanos) {
+            mUrl = url;
+            mListenerGate = listenerGate;
+            mDeadlineNanos = deadlineNanos;
+            mPrimary = new Attempt();
+        }
+
+        Response run(CancellationToken cancellationToken, long hedgeDelayMillis) {
+            long remainingMillis = TimeUnit.NANOSECONDS.toMillis(mDeadlineNanos - System.nanoTime());
+            if (remainingMillis <= 0) {
+                return Response.EXPIRED;
+            }
+            if (cancellationToken != null) {
+                cancellationToken.setOnCancelListener(new CancellationToken.OnCancelListener() {
+                    @Override
+                    public void onCancel() {
+                        cancelAll();
+                    }
+                });
+            }
+            // The deadline cancels whatever is still in flight
+            ScheduledFuture<?> deadlineTimer = sTimers.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    mExpired = true;
+                    cancelAll();
+                }
+            }, remainingMillis, TimeUnit.MILLISECONDS);
+            ScheduledFuture<?> hedgeTimer = null;
+            if (hedgeDelayMillis > 0 && hedgeDelayMillis < remainingMillis) {
+                hedgeTimer = sTimers.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        startHedge();
+                    }
+                }, hedgeDelayMillis, TimeUnit.MILLISECONDS);
+            }
+
+            Response response;
+            try {
+                response = mPrimary.run();
+                Attempt hedge;
+                synchronized (this) {
+                    // No hedge is started once the primary request is over
+                    mClosed = true;
+                    hedge = mHedge;
+                }
+                if (response.books == null && hedge != null) {
+                    Response hedgeResponse = hedge.await();
+                    if (hedgeResponse.books != null || response == Response.CANCELED) {
+                        response = hedgeResponse;
+                    }
+                }
+            } finally {
+                deadlineTimer.cancel(false);
+                if (hedgeTimer != null) {
+                    hedgeTimer.cancel(false);
+                }
+                if (cancellationToken != null) {
+                    cancellationToken.setOnCancelListener(null);
+                }
+            }
+            if (cancellationToken != null) {
+                cancellationToken.throwIfCanceled();
+            }
+            return response.books == null && mExpired ? Response.EXPIRED : response;
+        }
+
+        /**
+         * Send a second request if the first one is still waiting for its response headers
+         */
+        private void startHedge() {
+            final Attempt hedge;
+            synchronized (this) {
+                if (mClosed || mWinner != null || mPrimary.mResponded) {
+                    return;
+                }
+                hedge = new Attempt();
+                mHedge = hedge;
+            }
+            BookMetrics.HEDGED_REQUESTS.incrementAndGet();
+            sHedgeExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        hedge.run();
+                    } catch (RuntimeException e) {
+                        // Nobody would catch it on this thread, the primary request reports the failure
+                        BookLog.e(LOG_TAG, "Problem with the hedged request", e);
+                    }
+                }
+            });
+        }
+
+        private void cancelAll() {
+            Attempt hedge;
+            synchronized (this) {
+                mClosed = true;
+                hedge = mHedge;
+            }
+            mPrimary.cancel();
+            if (hedge != null) {
+                hedge.cancel();
+            }
+        }
+
+        /**
+         * Keep the first request that parsed its whole response and cancel the other one
+         */
+        private void onSuccess(Attempt attempt) {
+            Attempt other;
+            synchronized (this) {
+                if (mWinner != null) {
+                    return;
+                }
+                mWinner = attempt;
+                other = attempt == mPrimary ? mHedge : mPrimary;
+            }
+            if (attempt != mPrimary) {
+                BookMetrics.HEDGE_WINS.incrementAndGet();
+            }
+            if (other != null) {
+                other.cancel();
+            }
+        }
+
+        /**
+         * A single HTTP request of the exchange
+         */
+        private final class Attempt {
+            private final CancellationToken mCancellationToken = new CancellationToken();
+            private final CountDownLatch mDone = new CountDownLatch(1);
+            private volatile Response mResponse;
+
+            /**
+             * Set once the response headers arrived, a hedge won't help after that
+             */
+            volatile boolean mResponded;
+
+            Response run() {
+                // Whatever the request throws, the other request of the exchange stops waiting for it
+                Response response = Response.FAILED;
+                try {
+                    try {
+                        response = makeHTTPRequest(mListenerGate.forRequest(this));
+                    } catch (FetchCanceledException e) {
+                        response = Response.CANCELED;
+                    } catch (IOException e) {
+                        BookLog.e(LOG_TAG, "Problem making the HTTP request", e);
+                        response = Response.FAILED;
+                    }
+                    if (response.books != null) {
+                        onSuccess(this);
+                    }
+                } finally {
+                    mResponse = response;
+                    mDone.countDown();
+                }
+                return response;
+            }
+
+            Response await() {
+                try {
+                    mDone.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    cancel();
+                    return Response.CANCELED;
+                }
+                return mResponse;
+            }
+
+            void cancel() {
+                mCancellationToken.cancel();
+            }
+
+            /**
+             * Make an HTTP request to the URL and parse the books straight off the response stream.
+             * Responses go through the {@link BookResponseCache} when it is installed.
+             */
+            private Response makeHTTPRequest(BookStreamParser.Listener listener) throws IOException {
+                // A fresh cached response is parsed without going to the network
+                BookResponseCache cache = BookResponseCache.getInstalled();
+                String cacheKey = null;
+                BookResponseCache.Entry cacheEntry = null;
+                if (cache != null) {
+                    cacheKey = BookResponseCache.canonicalKey(mUrl);
+                    cacheEntry = cache.get(cacheKey);
+                    if (cacheEntry != null && cache.isFresh(cacheEntry)) {
+                        try {
+                            return success(parseCached(cache.openHit(cacheEntry), listener));
+                        } catch (IOException | IllegalStateException e) {
+                            BookLog.e(LOG_TAG, "Problem reading the cached book JSON results", e);
+                            cacheEntry = null;
+                        }
+                    }
+                }
+
+                // The socket timeouts never go past the deadline of the search
+                int remainingMillis = (int) Math.max(1,
+                        TimeUnit.NANOSECONDS.toMillis(mDeadlineNanos - System.nanoTime()));
+
+                Response response;
+                HttpURLConnection urlConnection = null;
+                InputStream inputStream = null;
+                boolean reusable = false;
+                long startNanos = System.nanoTime();
+                BookMetrics.REQUESTS.incrementAndGet();
+                try {
+                    urlConnection = (HttpURLConnection) mUrl.openConnection();
+                    // Disconnecting from another thread makes the blocked read fail right away
+                    final HttpURLConnection connection = urlConnection;
+                    mCancellationToken.setOnCancelListener(new CancellationToken.OnCancelListener() {
+                        @Override
+                        public void onCancel() {
+                            connection.disconnect();
+                        }
+                    });
+                    mCancellationToken.throwIfCanceled();
+                    urlConnection.setReadTimeout(Math.min(READ_TIMEOUT, remainingMillis));
+                    urlConnection.setConnectTimeout(Math.min(CONNECT_TIMEOUT, remainingMillis));
+                    urlConnection.setRequestMethod("GET");
+                    if (sLeanTransport) {
+                        // Ask for a compressed body, it is decoded below while it is parsed
+                        urlConnection.setRequestProperty("Accept-Encoding", "gzip");
+                    }
+                    if (cacheEntry != null) {
+                        cache.addValidators(urlConnection, cacheEntry);
+                    }
+                    urlConnection.connect();
+                    long connectedNanos = System.nanoTime();
+                    BookMetrics.CONNECT_TIME.record(BookMetrics.elapsedMicros(startNanos));
+
+                    // Returns once the status line and the headers have arrived
+                    int responseCode = urlConnection.getResponseCode();
+                    mResponded = true;
+                    long firstByteNanos = System.nanoTime();
+                    BookMetrics.FIRST_BYTE_TIME.record(BookMetrics.elapsedMicros(startNanos));
+                    // Without the handshakes of a new connection, the wait for the headers is about a round trip
+                    long roundTripMillis = TimeUnit.NANOSECONDS.toMillis(firstByteNanos - connectedNanos);
+                    if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED && cacheEntry != null) {
+                        NetworkEstimator.onResponse(roundTripMillis, 0, 0);
+                        // The cached response is still valid
+                        inputStream = new BufferedInputStream(cache.openNotModified(cacheEntry));
+                        response = success(parse(inputStream, listener));
+                        reusable = true;
+                    } else if (responseCode == HttpURLConnection.HTTP_OK) {
+                        // Parse the books while the inputStream is being read
+                        CountingInputStream wireStream = new CountingInputStream(urlConnection.getInputStream());
+                        CountingInputStream bodyStream = wireStream;
+                        if ("gzip".equalsIgnoreCase(urlConnection.getContentEncoding())) {
+                            bodyStream = new CountingInputStream(new GZIPInputStream(wireStream));
+                        }
+                        BookList books;
+                        if (cache != null) {
+                            BookResponseCache.CachingInputStream cachingStream =
+                                    cache.store(cacheKey, urlConnection, bodyStream);
+                            inputStream = cachingStream;
+                            books = parse(new BufferedInputStream(cachingStream), listener);
+                            cachingStream.commit();
+                        } else {
+                            inputStream = new BufferedInputStream(bodyStream);
+                            books = parse(inputStream, listener);
+                            drain(inputStream);
+                        }
+                        response = success(books);
+                        reusable = true;
+                        // Only the time spent waiting on the socket, the parse in between doesn't count
+                        NetworkEstimator.onResponse(roundTripMillis, wireStream.getCount(),
+                                wireStream.getReadMillis());
+                        recordTransfer(mUrl, wireStream.getCount(), bodyStream.getCount(),
+                                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+                    } else {
+                        BookMetrics.FAILED_REQUESTS.incrementAndGet();
+                        BookLog.e(LOG_TAG, "Error Response Code: " + responseCode);
+                        response = new Response(null, isRetryable(responseCode),
+                                RetryPolicy.parseRetryAfter(urlConnection.getHeaderField("Retry-After"),
+                                        System.currentTimeMillis()), false);
+                    }
+                } catch (IOException | IllegalStateException e) {
+                    // A cancelled request fails with an IOException, that's not an error
+                    mCancellationToken.throwIfCanceled();
+                    BookMetrics.FAILED_REQUESTS.incrementAndGet();
+                    BookLog.e(LOG_TAG, "Problem retrieving the book JSON results", e);
+                    // JsonReader reports unexpected tokens with an IllegalStateException,
+                    // the same response would fail the same way
+                    response = e instanceof IOException ? Response.RETRYABLE : Response.FAILED;
+                } finally {
+                    mCancellationToken.setOnCancelListener(null);
+                    if (inputStream != null) {
+                        inputStream.close();
+                    }
+                    // A fully read response leaves the connection open for the next search,
+                    // unless keep-alive is turned off
+                    if (urlConnection != null && (!reusable || !sLeanTransport)) {
+                        urlConnection.disconnect();
+                    }
+                }
+                return response;
+            }
+        }
+    }
+
+    private static Response success(BookList books) {
+        return new Response(books, false, -1, false);
+    }
+
+    /**
+     * Timeouts, throttling and server errors may go away on their own
+     */
+    private static boolean isRetryable(int responseCode) {
+        return responseCode == HttpURLConnection.HTTP_CLIENT_TIMEOUT || responseCode == HTTP_TOO_MANY_REQUESTS
+                || responseCode >= HttpURLConnection.HTTP_INTERNAL_ERROR;
+    }
+
+    /**
+     * Read what is left of a response so its connection can be reused
+     */
+    private static void drain(InputStream inputStream) throws IOException {
+        byte[] buffer = new byte[4096];
+        while (inputStream.read(buffer) != -1) {
+            // Discard
+        }
+    }
+
+    /**
+     * Count the bytes of a response that came from the network
+     */
+    private static void recordTransfer(URL url, long wireBytes, long bodyBytes, long durationMillis) {
+        sRequestCount.incrementAndGet();
+        sWireBytes.addAndGet(wireBytes);
+        sBodyBytes.addAndGet(bodyBytes);
+        BookMetrics.RESPONSE_BYTES.record(wireBytes);
+        if (BookLog.isDebugEnabled()) {
+            BookLog.d(LOG_TAG, "GET " + url.getPath() + ": " + wireBytes + " bytes on the wire, "
+                    + bodyBytes + " bytes decoded, last byte after " + durationMillis + " ms");
+        }
+    }
+
+    /**
+     * Parse a response and record the parse time and the number of books
+     */
+    private static BookList parse(InputStream inputStream, BookStreamParser.Listener listener) throws IOException {
+        long startNanos = System.nanoTime();
+        BookList books = BookStreamParser.parse(inputStream, listener);
+        BookMetrics.PARSE_TIME.record(BookMetrics.elapsedMicros(startNanos));
+        BookMetrics.ITEMS_PARSED.record(books.size());
+        return books;
+    }
+
+    /**
+     * Parse a response read from the cache
+     */
+    private static BookList parseCached(InputStream cachedBody, BookStreamParser.Listener listener) throws IOException {
+        InputStream inputStream = new BufferedInputStream(cachedBody);
+        BookMetrics.CACHED_RESPONSES.incrementAndGet();
+        try {
+            return parse(inputStream, listener);
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * Turn the lean transport on or off: gzip, field projection and keep-alive
+     */
+    public static void setLeanTransport(boolean leanTransport) {
+        sLeanTransport = leanTransport;
+    }
+
+    public static boolean isLeanTransport() {
+        return sLeanTransport;
+    }
+
+    /**
+     * Number of responses read from the network, and their bytes on the wire and once decoded
+     */
+    public static long getRequestCount() {
+        return sRequestCount.get();
+    }
+
+    public static long getWireBytes() {
+        return sWireBytes.get();
+    }
+
+    public static long getBodyBytes() {
+        return sBodyBytes.get();
+    }
+}
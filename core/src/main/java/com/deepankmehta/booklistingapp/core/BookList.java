@@ -0,0 +1,41 @@
+/*
+ * Copyright 2018 Deepank Mehta. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * You may not use this file; except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * Distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * Limitations under the License.
+ */
+package com.deepankmehta.booklistingapp.core;
+
+import java.util.ArrayList;
+
+/**
+ * Books of a response, with the number of items the response had before the ones
+ * that can't be shown were skipped.
+ * A page without any book to show isn't the end of a search, a page without any item is.
+ */
+public final class BookList extends ArrayList<Book> {
+
+    private static final long serialVersionUID = 1L;
+
+    private int mItemCount;
+
+    public BookList() {
+    }
+
+    /**
+     * Return the number of elements of "items" in the response, shown or not
+     */
+    public int getItemCount() {
+        return mItemCount;
+    }
+
+    public void setItemCount(int itemCount) {
+        mItemCount = itemCount;
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2018 Deepank Mehta. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * You may not use this file; except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * Distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * Limitations under the License.
+ */
+package com.deepankmehta.booklistingapp.core;
+
+/**
+ * Logging of the core classes. The app plugs in android.util.Log, on a plain JVM
+ * errors go to System.err and debug messages are dropped.
+ */
+public final class BookLog {
+
+    /**
+     * Receives the log messages
+     */
+    public interface Logger {
+        boolean isDebugEnabled();
+
+        void d(String tag, String message);
+
+        void e(String tag, String message, Throwable throwable);
+    }
+
+    private static volatile Logger sLogger = new Logger() {
+        @Override
+        public boolean isDebugEnabled() {
+            return false;
+        }
+
+        @Override
+        public void d(String tag, String message) {
+        }
+
+        @Override
+        public void e(String tag, String message, Throwable throwable) {
+            System.err.println(tag + ": " + message);
+            if (throwable != null) {
+                throwable.printStackTrace();
+            }
+        }
+    };
+
+    private BookLog() {
+    }
+
+    public static void setLogger(Logger logger) {
+        sLogger = logger;
+    }
+
+    static boolean isDebugEnabled() {
+        return sLogger.isDebugEnabled();
+    }
+
+    static void d(String tag, String message) {
+        sLogger.d(tag, message);
+    }
+
+    static void e(String tag, String message) {
+        sLogger.e(tag, message, null);
+    }
+
+    static void e(String tag, String message, Throwable throwable) {
+        sLogger.e(tag, message, throwable);
+    }
+}
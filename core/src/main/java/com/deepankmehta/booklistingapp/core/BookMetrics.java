@@ -0,0 +1,298 @@
+/*
+ * Copyright 2018 Deepank Mehta. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * You may not use this file; except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * Distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * Limitations under the License.
+ */
+
+package com.deepankmehta.booklistingapp.core;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Timings and counters of the search path, cheap enough to record on every request and every bind.
+ * Values go into fixed buckets, so recording never allocates or locks.
+ */
+public final class BookMetrics {
+
+    /**
+     * Network request: time until connected, until the response headers arrived, and bytes on the wire
+     */
+    public static final Histogram CONNECT_TIME = new Histogram("connect_time", "us");
+    public static final Histogram FIRST_BYTE_TIME = new Histogram("time_to_first_byte", "us");
+    public static final Histogram RESPONSE_BYTES = new Histogram("response_bytes", "bytes");
+
+    /**
+     * Parse of a response, from the network or the cache, and the books it contained
+     */
+    public static final Histogram PARSE_TIME = new Histogram("parse_time", "us");
+    public static final Histogram ITEMS_PARSED = new Histogram("items_per_response", "items");
+
+    /**
+     * Time from the start of a load until its first rows are handed to the list, and time to bind a row
+     */
+    public static final Histogram FIRST_ROW_TIME = new Histogram("time_to_first_row", "us");
+    public static final Histogram BIND_TIME = new Histogram("bind_time", "us");
+
+    /**
+     * Cold start: time from the process start to the first frame, and to the first results shown
+     */
+    public static final Histogram STARTUP_FIRST_FRAME = new Histogram("startup_first_frame", "ms");
+    public static final Histogram STARTUP_FIRST_RESULT = new Histogram("startup_first_result", "ms");
+
+    /**
+     * Time to read the results saved before the process was killed
+     */
+    public static final Histogram SNAPSHOT_READ_TIME = new Histogram("snapshot_read_time", "us");
+
+    public static final AtomicLong REQUESTS = new AtomicLong();
+    public static final AtomicLong FAILED_REQUESTS = new AtomicLong();
+    public static final AtomicLong CACHED_RESPONSES = new AtomicLong();
+
+    /**
+     * Resilience of the requests: retries after a failure, hedged second requests and the ones that
+     * answered first, and requests given up at their deadline
+     */
+    public static final AtomicLong RETRIES = new AtomicLong();
+    public static final AtomicLong HEDGED_REQUESTS = new AtomicLong();
+    public static final AtomicLong HEDGE_WINS = new AtomicLong();
+    public static final AtomicLong DEADLINE_EXPIRED = new AtomicLong();
+
+    private static final Histogram[] HISTOGRAMS = {CONNECT_TIME, FIRST_BYTE_TIME, RESPONSE_BYTES,
+            PARSE_TIME, ITEMS_PARSED, FIRST_ROW_TIME, BIND_TIME, STARTUP_FIRST_FRAME, STARTUP_FIRST_RESULT,
+            SNAPSHOT_READ_TIME};
+
+    private BookMetrics() {
+    }
+
+    /**
+     * Return the microseconds elapsed since the given System.nanoTime() value
+     */
+    public static long elapsedMicros(long startNanos) {
+        return TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Return a copy of every histogram and counter
+     */
+    public static Snapshot snapshot() {
+        List<HistogramSnapshot> histograms = new ArrayList<>(HISTOGRAMS.length);
+        for (Histogram histogram : HISTOGRAMS) {
+            histograms.add(histogram.snapshot());
+        }
+        Map<String, Long> counters = new LinkedHashMap<>();
+        counters.put("requests", REQUESTS.get());
+        counters.put("failed_requests", FAILED_REQUESTS.get());
+        counters.put("cached_responses", CACHED_RESPONSES.get());
+        counters.put("retries", RETRIES.get());
+        counters.put("hedged_requests", HEDGED_REQUESTS.get());
+        counters.put("hedge_wins", HEDGE_WINS.get());
+        counters.put("deadline_expired", DEADLINE_EXPIRED.get());
+        return new Snapshot(histograms, counters);
+    }
+
+    public static void reset() {
+        for (Histogram histogram : HISTOGRAMS) {
+            histogram.reset();
+        }
+        REQUESTS.set(0);
+        FAILED_REQUESTS.set(0);
+        CACHED_RESPONSES.set(0);
+        RETRIES.set(0);
+        HEDGED_REQUESTS.set(0);
+        HEDGE_WINS.set(0);
+        DEADLINE_EXPIRED.set(0);
+    }
+
+    /**
+     * Write the current values, one line per histogram or counter
+     */
+    public static void dump(String prefix, PrintWriter writer) {
+        Snapshot snapshot = snapshot();
+        writer.print(prefix);
+        writer.println("BookMetrics:");
+        for (HistogramSnapshot histogram : snapshot.histograms) {
+            writer.print(prefix);
+            writer.print("  ");
+            writer.println(histogram);
+        }
+        for (Map.Entry<String, Long> counter : snapshot.counters.entrySet()) {
+            writer.print(prefix);
+            writer.print("  ");
+            writer.println(counter.getKey() + " " + counter.getValue());
+        }
+    }
+
+    /**
+     * Distribution of a value in buckets of 1, 2 and 5 times a power of ten
+     */
+    public static final class Histogram {
+
+        private static final long[] BOUNDS = bounds();
+
+        private final String mName;
+        private final String mUnit;
+        private final AtomicLongArray mBuckets = new AtomicLongArray(BOUNDS.length + 1);
+        private final AtomicLong mSum = new AtomicLong();
+        private final AtomicLong mMin = new AtomicLong(Long.MAX_VALUE);
+        private final AtomicLong mMax = new AtomicLong(Long.MIN_VALUE);
+
+        Histogram(String name, String unit) {
+            mName = name;
+            mUnit = unit;
+        }
+
+        public void record(long value) {
+            mBuckets.incrementAndGet(bucket(value));
+            mSum.addAndGet(value);
+            long min;
+            while (value < (min = mMin.get()) && !mMin.compareAndSet(min, value)) {
+                // Retry
+            }
+            long max;
+            while (value > (max = mMax.get()) && !mMax.compareAndSet(max, value)) {
+                // Retry
+            }
+        }
+
+        public HistogramSnapshot snapshot() {
+            long[] buckets = new long[mBuckets.length()];
+            long count = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = mBuckets.get(i);
+                count += buckets[i];
+            }
+            long min = count > 0 ? mMin.get() : 0;
+            long max = count > 0 ? mMax.get() : 0;
+            return new HistogramSnapshot(mName, mUnit, count, mSum.get(), min, max,
+                    percentile(buckets, count, 0.5, max), percentile(buckets, count, 0.9, max),
+                    percentile(buckets, count, 0.99, max));
+        }
+
+        public void reset() {
+            for (int i = 0; i < mBuckets.length(); i++) {
+                mBuckets.set(i, 0);
+            }
+            mSum.set(0);
+            mMin.set(Long.MAX_VALUE);
+            mMax.set(Long.MIN_VALUE);
+        }
+
+        /**
+         * Return the upper bound of the bucket holding the given fraction of the values, at most the maximum
+         */
+        private static long percentile(long[] buckets, long count, double fraction, long max) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(fraction * count);
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= rank) {
+                    return i < BOUNDS.length ? Math.min(BOUNDS[i], max) : max;
+                }
+            }
+            return max;
+        }
+
+        private static int bucket(long value) {
+            for (int i = 0; i < BOUNDS.length; i++) {
+                if (value <= BOUNDS[i]) {
+                    return i;
+                }
+            }
+            return BOUNDS.length;
+        }
+
+        /**
+         * Return 1, 2, 5, 10, 20, 50 ... up to 5 * 10^9
+         */
+        private static long[] bounds() {
+            long[] bounds = new long[30];
+            long power = 1;
+            for (int i = 0; i < bounds.length; i += 3) {
+                bounds[i] = power;
+                bounds[i + 1] = 2 * power;
+                bounds[i + 2] = 5 * power;
+                power *= 10;
+            }
+            return bounds;
+        }
+    }
+
+    /**
+     * Values of a histogram at one point in time
+     */
+    public static final class HistogramSnapshot {
+        public final String name;
+        public final String unit;
+        public final long count;
+        public final long sum;
+        public final long min;
+        public final long max;
+        public final long p50;
+        public final long p90;
+        public final long p99;
+
+        HistogramSnapshot(String name, String unit, long count, long sum, long min, long max,
+                          long p50, long p90, long p99) {
+            this.name = name;
+            this.unit = unit;
+            this.count = count;
+            this.sum = sum;
+            this.min = min;
+            this.max = max;
+            this.p50 = p50;
+            this.p90 = p90;
+            this.p99 = p99;
+        }
+
+        public long mean() {
+            return count > 0 ? sum / count : 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%s count=%d mean=%d p50=%d p90=%d p99=%d min=%d max=%d %s",
+                    name, count, mean(), p50, p90, p99, min, max, unit);
+        }
+    }
+
+    /**
+     * Every histogram and counter at one point in time
+     */
+    public static final class Snapshot {
+        public final List<HistogramSnapshot> histograms;
+        public final Map<String, Long> counters;
+
+        Snapshot(List<HistogramSnapshot> histograms, Map<String, Long> counters) {
+            this.histograms = Collections.unmodifiableList(histograms);
+            this.counters = Collections.unmodifiableMap(counters);
+        }
+
+        public HistogramSnapshot get(String name) {
+            for (HistogramSnapshot histogram : histograms) {
+                if (histogram.name.equals(name)) {
+                    return histogram;
+                }
+            }
+            return null;
+        }
+    }
+}
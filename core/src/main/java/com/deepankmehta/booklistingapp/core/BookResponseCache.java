@@ -0,0 +1,465 @@
+/*
+ * Copyright 2018 Deepank Mehta. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * You may not use this file; except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * Distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * Limitations under the License.
+ */
+
+package com.deepankmehta.booklistingapp.core;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Disk cache of Google Books responses, keyed by the canonical request URL.
+ * Entries are evicted in least recently used order once the size budget is exceeded,
+ * and entries older than the TTL are revalidated with If-None-Match / If-Modified-Since.
+ */
+public final class BookResponseCache {
+
+    // Tag for the log messages
+    private static final String LOG_TAG = BookResponseCache.class.getSimpleName();
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String BODY_SUFFIX = ".body";
+    private static final String META_SUFFIX = ".meta";
+
+    /**
+     * Cache installed by the app, null until {@link #install} is called
+     */
+    private static BookResponseCache sInstance;
+
+    private final File mDirectory;
+    private final long mMaxSize;
+    private final long mTtlMillis;
+
+    /**
+     * Entries in access order, the eldest one is evicted first
+     */
+    private final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+    private long mSize;
+
+    /**
+     * Counters
+     */
+    private final AtomicLong mHitCount = new AtomicLong();
+    private final AtomicLong mMissCount = new AtomicLong();
+    private final AtomicLong mNotModifiedCount = new AtomicLong();
+    private final AtomicLong mBytesSaved = new AtomicLong();
+
+    /**
+     * A cached response
+     */
+    static final class Entry {
+        final String key;
+        final String fileName;
+        String etag;
+        String lastModified;
+        long storedAt;
+        long length;
+
+        Entry(String key, String fileName) {
+            this.key = key;
+            this.fileName = fileName;
+        }
+    }
+
+    private BookResponseCache(File directory, long maxSize, long ttlMillis) {
+        mDirectory = directory;
+        mMaxSize = maxSize;
+        mTtlMillis = ttlMillis;
+    }
+
+    /**
+     * Install the cache in the given directory, or return the one already installed
+     */
+    public static synchronized BookResponseCache install(File directory, long maxSize, long ttlMillis) {
+        if (sInstance == null) {
+            BookResponseCache cache = new BookResponseCache(directory, maxSize, ttlMillis);
+            cache.readEntries();
+            sInstance = cache;
+        }
+        return sInstance;
+    }
+
+    /**
+     * Remove the installed cache, the files stay on disk. Used by the tests.
+     */
+    static synchronized void uninstall() {
+        sInstance = null;
+    }
+
+    /**
+     * Return the installed cache, or null
+     */
+    public static synchronized BookResponseCache getInstalled() {
+        return sInstance;
+    }
+
+    /**
+     * Return the cache key of a request URL: scheme and host in lower case and the
+     * query parameters in a stable order, so equivalent URLs share an entry
+     */
+    public static String canonicalKey(URL url) {
+        StringBuilder key = new StringBuilder();
+        key.append(url.getProtocol().toLowerCase(Locale.US)).append("://")
+                .append(url.getHost().toLowerCase(Locale.US));
+        if (url.getPort() != -1 && url.getPort() != url.getDefaultPort()) {
+            key.append(':').append(url.getPort());
+        }
+        key.append(url.getPath());
+        String query = url.getQuery();
+        if (query != null && !query.isEmpty()) {
+            String[] parameters = query.split("&");
+            Arrays.sort(parameters);
+            char separator = '?';
+            for (String parameter : parameters) {
+                if (!parameter.isEmpty()) {
+                    key.append(separator).append(parameter);
+                    separator = '&';
+                }
+            }
+        }
+        return key.toString();
+    }
+
+    /**
+     * Return the entry of the given key, or null
+     */
+    synchronized Entry get(String key) {
+        return mEntries.get(key);
+    }
+
+    /**
+     * Return true if the entry can be used without asking the server
+     */
+    boolean isFresh(Entry entry) {
+        return System.currentTimeMillis() - entry.storedAt < mTtlMillis;
+    }
+
+    /**
+     * Add the validators of a stale entry to the request
+     */
+    void addValidators(HttpURLConnection urlConnection, Entry entry) {
+        if (entry.etag != null) {
+            urlConnection.setRequestProperty("If-None-Match", entry.etag);
+        }
+        if (entry.lastModified != null) {
+            urlConnection.setRequestProperty("If-Modified-Since", entry.lastModified);
+        }
+    }
+
+    /**
+     * Open the body of an entry that is served without a network round trip
+     */
+    InputStream openHit(Entry entry) throws IOException {
+        File bodyFile = new File(mDirectory, entry.fileName + BODY_SUFFIX);
+        InputStream inputStream = new FileInputStream(bodyFile);
+        // Keep the access order for the next run
+        bodyFile.setLastModified(System.currentTimeMillis());
+        mHitCount.incrementAndGet();
+        mBytesSaved.addAndGet(entry.length);
+        return inputStream;
+    }
+
+    /**
+     * Refresh an entry after the server answered 304 Not Modified and open its body.
+     * If the body was evicted meanwhile the entry is dropped, so the retry asks for the whole response
+     * instead of revalidating again.
+     */
+    InputStream openNotModified(Entry entry) throws IOException {
+        InputStream inputStream;
+        try {
+            inputStream = openHit(entry);
+        } catch (FileNotFoundException e) {
+            remove(entry);
+            throw e;
+        }
+        mNotModifiedCount.incrementAndGet();
+        synchronized (this) {
+            entry.storedAt = System.currentTimeMillis();
+        }
+        writeMeta(entry);
+        return inputStream;
+    }
+
+    /**
+     * Wrap the body of a 200 response so it's written to the cache while it is read.
+     * The entry is only stored once the whole body has been read and {@link CachingInputStream#commit} is called.
+     */
+    CachingInputStream store(String key, HttpURLConnection urlConnection, InputStream body) throws IOException {
+        mMissCount.incrementAndGet();
+        Entry entry = new Entry(key, fileName(key));
+        entry.etag = urlConnection.getHeaderField("ETag");
+        entry.lastModified = urlConnection.getHeaderField("Last-Modified");
+        File tempFile = File.createTempFile(entry.fileName, ".tmp", mDirectory);
+        return new CachingInputStream(body, entry, tempFile);
+    }
+
+    public long getHitCount() {
+        return mHitCount.get();
+    }
+
+    public long getMissCount() {
+        return mMissCount.get();
+    }
+
+    public long getNotModifiedCount() {
+        return mNotModifiedCount.get();
+    }
+
+    public long getBytesSaved() {
+        return mBytesSaved.get();
+    }
+
+    public synchronized long getSize() {
+        return mSize;
+    }
+
+    /**
+     * Add a fully written entry and evict the least recently used ones over the budget
+     */
+    private void commit(Entry entry, File tempFile) throws IOException {
+        entry.storedAt = System.currentTimeMillis();
+        entry.length = tempFile.length();
+        writeMeta(entry);
+        synchronized (this) {
+            File bodyFile = new File(mDirectory, entry.fileName + BODY_SUFFIX);
+            if (!tempFile.renameTo(bodyFile)) {
+                tempFile.delete();
+                throw new IOException("Can't rename " + tempFile);
+            }
+            Entry previous = mEntries.put(entry.key, entry);
+            if (previous != null) {
+                mSize -= previous.length;
+            }
+            mSize += entry.length;
+            trimToSize();
+        }
+    }
+
+    /**
+     * Drop the entry and its files, unless it was already replaced
+     */
+    private synchronized void remove(Entry entry) {
+        if (mEntries.get(entry.key) != entry) {
+            return;
+        }
+        mEntries.remove(entry.key);
+        mSize -= entry.length;
+        new File(mDirectory, entry.fileName + BODY_SUFFIX).delete();
+        new File(mDirectory, entry.fileName + META_SUFFIX).delete();
+    }
+
+    private void trimToSize() {
+        Iterator<Entry> iterator = mEntries.values().iterator();
+        while (mSize > mMaxSize && iterator.hasNext()) {
+            Entry eldest = iterator.next();
+            iterator.remove();
+            mSize -= eldest.length;
+            new File(mDirectory, eldest.fileName + BODY_SUFFIX).delete();
+            new File(mDirectory, eldest.fileName + META_SUFFIX).delete();
+        }
+    }
+
+    private void writeMeta(Entry entry) throws IOException {
+        File metaFile = new File(mDirectory, entry.fileName + META_SUFFIX);
+        Writer writer = new OutputStreamWriter(new FileOutputStream(metaFile), UTF_8);
+        try {
+            writer.write(entry.key + "\n");
+            writer.write((entry.etag != null ? entry.etag : "") + "\n");
+            writer.write((entry.lastModified != null ? entry.lastModified : "") + "\n");
+            writer.write(entry.storedAt + "\n");
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Read the entries left by a previous run, least recently used first
+     */
+    private void readEntries() {
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            BookLog.e(LOG_TAG, "Can't create the cache directory");
+            return;
+        }
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        List<File> bodies = new ArrayList<>();
+        for (File file : files) {
+            if (file.getName().endsWith(BODY_SUFFIX)) {
+                bodies.add(file);
+            } else if (file.getName().endsWith(".tmp")) {
+                // Left over by a response that wasn't read completely
+                file.delete();
+            }
+        }
+        Collections.sort(bodies, new Comparator<File>() {
+            @Override
+            public int compare(File first, File second) {
+                return Long.compare(first.lastModified(), second.lastModified());
+            }
+        });
+
+        for (File body : bodies) {
+            String fileName = body.getName().substring(0, body.getName().length() - BODY_SUFFIX.length());
+            File metaFile = new File(mDirectory, fileName + META_SUFFIX);
+            try {
+                BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(metaFile), UTF_8));
+                try {
+                    Entry entry = new Entry(reader.readLine(), fileName);
+                    entry.etag = emptyToNull(reader.readLine());
+                    entry.lastModified = emptyToNull(reader.readLine());
+                    entry.storedAt = Long.parseLong(reader.readLine());
+                    entry.length = body.length();
+                    mEntries.put(entry.key, entry);
+                    mSize += entry.length;
+                } finally {
+                    reader.close();
+                }
+            } catch (IOException | RuntimeException e) {
+                // Incomplete entry, drop it
+                body.delete();
+                metaFile.delete();
+            }
+        }
+        trimToSize();
+    }
+
+    private static String emptyToNull(String value) {
+        return value == null || value.isEmpty() ? null : value;
+    }
+
+    /**
+     * Return the file name of an entry, the hex SHA-1 of the key
+     */
+    private static String fileName(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(key.getBytes(UTF_8));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(String.format(Locale.US, "%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return Integer.toHexString(key.hashCode());
+        }
+    }
+
+    /**
+     * Copies the body of a response to a temporary file while it is being read
+     */
+    final class CachingInputStream extends FilterInputStream {
+
+        private final Entry mEntry;
+        private final File mTempFile;
+        private final OutputStream mOutput;
+        private boolean mFailed;
+
+        private CachingInputStream(InputStream body, Entry entry, File tempFile) throws IOException {
+            super(body);
+            mEntry = entry;
+            mTempFile = tempFile;
+            mOutput = new FileOutputStream(tempFile);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            int read = super.read(buffer, offset, count);
+            if (read > 0) {
+                write(buffer, offset, read);
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long count) throws IOException {
+            // Skipped bytes must be cached as well
+            byte[] buffer = new byte[(int) Math.min(count, 4096)];
+            int read = read(buffer, 0, buffer.length);
+            return Math.max(read, 0);
+        }
+
+        private void write(byte[] buffer, int offset, int count) {
+            if (mFailed) {
+                return;
+            }
+            try {
+                mOutput.write(buffer, offset, count);
+            } catch (IOException e) {
+                mFailed = true;
+                BookLog.e(LOG_TAG, "Problem writing the response to the cache", e);
+            }
+        }
+
+        /**
+         * Read what is left of the body and store the entry
+         */
+        void commit() throws IOException {
+            byte[] buffer = new byte[4096];
+            while (read(buffer, 0, buffer.length) != -1) {
+                // Drain the body so the cached copy is complete
+            }
+            mOutput.close();
+            if (mFailed) {
+                mTempFile.delete();
+                return;
+            }
+            BookResponseCache.this.commit(mEntry, mTempFile);
+        }
+
+        /**
+         * Close the body, the entry is dropped unless it was committed
+         */
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                mOutput.close();
+                mTempFile.delete();
+            }
+        }
+    }
+}
@@ -0,0 +1,284 @@
+/*
+ * Copyright 2018 Deepank Mehta. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * You may not use this file; except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * Distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * Limitations under the License.
+ */
+
+package com.deepankmehta.booklistingapp.core;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+
+/**
+ * Reads a Google Books volumes response token by token and builds the
+ * {@link Book} objects as it goes, without holding the body or a JSON tree in memory
+ */
+public final class BookStreamParser {
+
+    /**
+     * Author text used when the "authors" key is present but empty or null
+     */
+    public static final String UNKNOWN_AUTHOR = "*** unknown author ***";
+
+    /**
+     * Author text used when the "authors" key is missing
+     */
+    public static final String MISSING_AUTHORS = "*** missing info of authors ***";
+
+    /**
+     * Callback for every book as soon as it has been parsed
+     */
+    public interface Listener {
+        void onBookParsed(Book book);
+    }
+
+    /**
+     * Fields of the item currently being read, reused for every item of a response
+     */
+    private String mVolumeId;
+    private String mTitle;
+    private String mAuthor;
+    private String mLanguage;
+    private double mAmount;
+    private boolean mHasPrice;
+    private String mCurrency;
+    private String mBuyLink;
+    private String mThumbnailUrl;
+
+    private final Listener mListener;
+
+    private BookStreamParser(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Parse the response read from the given stream and return the list of books.
+     * Items without a title or a retail price are skipped, but still counted by {@link BookList#getItemCount()}.
+     */
+    public static BookList parse(InputStream inputStream) throws IOException {
+        return parse(inputStream, null);
+    }
+
+    /**
+     * Parse the response read from the given stream, reporting every book to the
+     * listener while the rest of the response is still being read
+     */
+    public static BookList parse(InputStream inputStream, Listener listener) throws IOException {
+        // The stream is left open, it belongs to the caller
+        JsonReader reader = new JsonReader(new InputStreamReader(inputStream, Charset.forName("UTF-8")));
+        return new BookStreamParser(listener).readResponse(reader);
+    }
+
+    private BookList readResponse(JsonReader reader) throws IOException {
+        BookList books = new BookList();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            // Only the "items" array is used, everything else is skipped
+            if ("items".equals(reader.nextName()) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                readItems(reader, books);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return books;
+    }
+
+    private void readItems(JsonReader reader, BookList books) throws IOException {
+        int itemCount = 0;
+        reader.beginArray();
+        while (reader.hasNext()) {
+            itemCount++;
+            Book book = readItem(reader);
+            if (book != null) {
+                books.add(book);
+                if (mListener != null) {
+                    mListener.onBookParsed(book);
+                }
+            }
+        }
+        reader.endArray();
+        books.setItemCount(itemCount);
+    }
+
+    /**
+     * Read a single element of "items" and return the book, or null if it can't be shown
+     */
+    private Book readItem(JsonReader reader) throws IOException {
+        mVolumeId = null;
+        mTitle = null;
+        mAuthor = MISSING_AUTHORS;
+        mLanguage = null;
+        mAmount = 0;
+        mHasPrice = false;
+        mCurrency = null;
+        mBuyLink = null;
+        mThumbnailUrl = null;
+
+        if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+            reader.skipValue();
+            return null;
+        }
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if ("id".equals(name)) {
+                mVolumeId = nextStringOrNull(reader);
+            } else if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+                reader.skipValue();
+            } else if ("volumeInfo".equals(name)) {
+                readVolumeInfo(reader);
+            } else if ("saleInfo".equals(name)) {
+                readSaleInfo(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (mTitle == null || !mHasPrice) {
+            return null;
+        }
+        return new Book(mVolumeId, mTitle, mAuthor, mAmount, mCurrency, mLanguage, mBuyLink, mThumbnailUrl);
+    }
+
+    private void readVolumeInfo(JsonReader reader) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if ("title".equals(name)) {
+                mTitle = nextStringOrNull(reader);
+            } else if ("authors".equals(name)) {
+                mAuthor = readAuthors(reader);
+            } else if ("language".equals(name)) {
+                mLanguage = nextStringOrNull(reader);
+            } else if ("imageLinks".equals(name) && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                readImageLinks(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    /**
+     * Keep the smallest cover image, the rows only show a thumbnail
+     */
+    private void readImageLinks(JsonReader reader) throws IOException {
+        String thumbnail = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if ("smallThumbnail".equals(name)) {
+                mThumbnailUrl = secureUrl(nextStringOrNull(reader));
+            } else if ("thumbnail".equals(name)) {
+                thumbnail = secureUrl(nextStringOrNull(reader));
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (mThumbnailUrl == null) {
+            mThumbnailUrl = thumbnail;
+        }
+    }
+
+    /**
+     * Return the image URL over https, the API returns http links for the covers
+     */
+    public static String secureUrl(String url) {
+        if (url != null && url.startsWith("http://")) {
+            return "https://" + url.substring("http://".length());
+        }
+        return url;
+    }
+
+    /**
+     * Return the elements of the "authors" array joined with {@link Book#AUTHOR_SEPARATOR}.
+     * A single author is returned as it is, without copying.
+     */
+    private static String readAuthors(JsonReader reader) throws IOException {
+        if (reader.peek() != JsonToken.BEGIN_ARRAY) {
+            reader.skipValue();
+            return UNKNOWN_AUTHOR;
+        }
+        String firstAuthor = null;
+        StringBuilder authors = null;
+        reader.beginArray();
+        while (reader.hasNext()) {
+            String author = nextStringOrNull(reader);
+            if (author == null) {
+                continue;
+            }
+            if (firstAuthor == null) {
+                firstAuthor = author;
+            } else {
+                if (authors == null) {
+                    authors = new StringBuilder(firstAuthor);
+                }
+                authors.append(Book.AUTHOR_SEPARATOR).append(author);
+            }
+        }
+        reader.endArray();
+        if (authors != null) {
+            return authors.toString();
+        }
+        return firstAuthor != null ? firstAuthor : UNKNOWN_AUTHOR;
+    }
+
+    private void readSaleInfo(JsonReader reader) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if ("buyLink".equals(name)) {
+                mBuyLink = nextStringOrNull(reader);
+            } else if ("retailPrice".equals(name) && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                readRetailPrice(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    private void readRetailPrice(JsonReader reader) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if ("amount".equals(name) && reader.peek() == JsonToken.NUMBER) {
+                mAmount = reader.nextDouble();
+                mHasPrice = true;
+            } else if ("currencyCode".equals(name)) {
+                mCurrency = nextStringOrNull(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    private static String nextStringOrNull(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        if (reader.peek() != JsonToken.STRING) {
+            reader.skipValue();
+            return null;
+        }
+        return reader.nextString();
+    }
+}
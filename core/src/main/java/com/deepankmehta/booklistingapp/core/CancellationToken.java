@@ -0,0 +1,92 @@
+/*
+ * Copyright 2018 Deepank Mehta. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * You may not use this file; except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * Distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * Limitations under the License.
+ */
+package com.deepankmehta.booklistingapp.core;
+
+/**
+ * Cancels a fetch in progress, the counterpart of android.os.CancellationSignal without Android
+ */
+public final class CancellationToken {
+
+    /**
+     * Called once when the token is cancelled
+     */
+    public interface OnCancelListener {
+        void onCancel();
+    }
+
+    private boolean mCanceled;
+    private boolean mCancelInProgress;
+    private OnCancelListener mOnCancelListener;
+
+    public synchronized boolean isCanceled() {
+        return mCanceled;
+    }
+
+    /**
+     * Throw a FetchCanceledException if the token has been cancelled
+     */
+    public void throwIfCanceled() {
+        if (isCanceled()) {
+            throw new FetchCanceledException();
+        }
+    }
+
+    /**
+     * Cancel the token and call its listener, if any
+     */
+    public void cancel() {
+        final OnCancelListener listener;
+        synchronized (this) {
+            if (mCanceled) {
+                return;
+            }
+            mCanceled = true;
+            mCancelInProgress = true;
+            listener = mOnCancelListener;
+        }
+        try {
+            if (listener != null) {
+                listener.onCancel();
+            }
+        } finally {
+            synchronized (this) {
+                mCancelInProgress = false;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Set the listener called on cancellation, right away if the token is already cancelled.
+     * Waits for a listener being called by cancel() to return first.
+     */
+    public void setOnCancelListener(OnCancelListener listener) {
+        synchronized (this) {
+            while (mCancelInProgress) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    // Keep waiting, the listener is about to return
+                }
+            }
+            if (mOnCancelListener == listener) {
+                return;
+            }
+            mOnCancelListener = listener;
+            if (!mCanceled || listener == null) {
+                return;
+            }
+        }
+        listener.onCancel();
+    }
+}
@@ -0,0 +1,25 @@
+/*
+ * Copyright 2018 Deepank Mehta. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * You may not use this file; except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * Distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * Limitations under the License.
+ */
+package com.deepankmehta.booklistingapp.core;
+
+/**
+ * Thrown by a fetch whose {@link CancellationToken} has been cancelled
+ */
+public class FetchCanceledException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public FetchCanceledException() {
+        super("The fetch has been canceled");
+    }
+}
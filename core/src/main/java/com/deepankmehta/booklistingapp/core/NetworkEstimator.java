@@ -0,0 +1,106 @@
+/*
+ * Copyright 2018 Deepank Mehta. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * You may not use this file; except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * Distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * Limitations under the License.
+ */
+package com.deepankmehta.booklistingapp.core;
+
+/**
+ * Running estimate of the round trip time and the throughput of the current network,
+ * fed with the responses that {@link BookClient} reads from it
+ */
+public final class NetworkEstimator {
+
+    // Tag for the log messages
+    private static final String LOG_TAG = NetworkEstimator.class.getSimpleName();
+
+    /**
+     * Weight of a new sample in the moving averages
+     */
+    private static final double SAMPLE_WEIGHT = 0.3;
+
+    /**
+     * Smaller responses are over before the connection gets up to speed,
+     * they only tell about the round trip time
+     */
+    private static final long MIN_THROUGHPUT_BYTES = 4 * 1024;
+
+    /**
+     * Below this throughput or above this round trip time, the network is slow
+     */
+    public static final long SLOW_THROUGHPUT_KBPS = 300;
+    public static final long SLOW_RTT_MILLIS = 1000;
+
+    // Guarded by the class, -1 until there is a sample
+    private static double sRttMillis = -1;
+    private static double sThroughputKbps = -1;
+
+    private NetworkEstimator() {
+    }
+
+    /**
+     * Add a response to the estimate: the time from the request to its response headers,
+     * and the bytes of the body as sent, compressed or not, with the time spent waiting for them.
+     * A body that arrives faster than it is parsed waits in the socket buffer and reads without
+     * waiting, so a fast network may be overestimated, but a slow one is not.
+     * A response without a body, or a small one, only counts for the round trip time.
+     */
+    static void onResponse(long firstByteMillis, long bodyBytes, long transferMillis) {
+        double rttMillis;
+        double throughputKbps;
+        synchronized (NetworkEstimator.class) {
+            sRttMillis = average(sRttMillis, firstByteMillis);
+            if (bodyBytes >= MIN_THROUGHPUT_BYTES) {
+                sThroughputKbps = average(sThroughputKbps, bodyBytes * 8.0 / Math.max(1, transferMillis));
+            }
+            rttMillis = sRttMillis;
+            throughputKbps = sThroughputKbps;
+        }
+        if (BookLog.isDebugEnabled()) {
+            BookLog.d(LOG_TAG, "Round trip " + Math.round(rttMillis) + " ms, throughput "
+                    + Math.round(throughputKbps) + " kbps");
+        }
+    }
+
+    private static double average(double average, double sample) {
+        return average < 0 ? sample : average + SAMPLE_WEIGHT * (sample - average);
+    }
+
+    /**
+     * Return the estimated round trip time in milliseconds, or -1 if it isn't known yet
+     */
+    public static synchronized long getRttMillis() {
+        return Math.round(sRttMillis);
+    }
+
+    /**
+     * Return the estimated throughput in kilobits per second, or -1 if it isn't known yet
+     */
+    public static synchronized long getThroughputKbps() {
+        return Math.round(sThroughputKbps);
+    }
+
+    /**
+     * Return true if the estimate says the network is slow,
+     * an unknown throughput is taken from the given guess if it's positive
+     */
+    public static synchronized boolean isSlow(long guessedThroughputKbps) {
+        long throughputKbps = sThroughputKbps >= 0 ? Math.round(sThroughputKbps) : guessedThroughputKbps;
+        return sRttMillis > SLOW_RTT_MILLIS || (throughputKbps > 0 && throughputKbps < SLOW_THROUGHPUT_KBPS);
+    }
+
+    /**
+     * Forget the estimate, the samples of another network don't apply to the new one
+     */
+    public static synchronized void reset() {
+        sRttMillis = -1;
+        sThroughputKbps = -1;
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2018 Deepank Mehta. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * You may not use this file; except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * Distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * Limitations under the License.
+ */
+package com.deepankmehta.booklistingapp.core;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How {@link BookClient} retries a failed search, how long a search may take in total,
+ * and whether a slow request gets a hedged second request
+ */
+public final class RetryPolicy {
+
+    /**
+     * Three attempts 250 ms apart at first and 4 s at most, 15 s per search, and a hedged request
+     * when the response headers are slower than the 90th percentile
+     */
+    public static final RetryPolicy DEFAULT = new RetryPolicy(3, 250, 4000, 15000, true);
+
+    /**
+     * One attempt and no hedging, with the same total time as {@link #DEFAULT}
+     */
+    public static final RetryPolicy NONE = new RetryPolicy(1, 0, 0, 15000, false);
+
+    private final int mMaxAttempts;
+    private final long mBaseDelayMillis;
+    private final long mMaxDelayMillis;
+    private final long mDeadlineMillis;
+    private final boolean mHedging;
+
+    public RetryPolicy(int maxAttempts, long baseDelayMillis, long maxDelayMillis, long deadlineMillis,
+                       boolean hedging) {
+        if (maxAttempts < 1 || deadlineMillis <= 0) {
+            throw new IllegalArgumentException("At least one attempt and a positive deadline are needed");
+        }
+        mMaxAttempts = maxAttempts;
+        mBaseDelayMillis = baseDelayMillis;
+        mMaxDelayMillis = maxDelayMillis;
+        mDeadlineMillis = deadlineMillis;
+        mHedging = hedging;
+    }
+
+    public int getMaxAttempts() {
+        return mMaxAttempts;
+    }
+
+    public long getDeadlineMillis() {
+        return mDeadlineMillis;
+    }
+
+    public boolean isHedging() {
+        return mHedging;
+    }
+
+    /**
+     * Delay before the given retry, counted from 0: a random value up to the base delay doubled
+     * on every retry and capped at the maximum, so failed clients don't come back all at once
+     */
+    long backoffMillis(int retry) {
+        long ceiling = Math.min(mMaxDelayMillis, mBaseDelayMillis << Math.min(retry, 20));
+        return ceiling > 0 ? ThreadLocalRandom.current().nextLong(ceiling + 1) : 0;
+    }
+
+    /**
+     * Return the delay asked by a Retry-After header, in seconds or as an HTTP date, or -1 if there is none
+     */
+    static long parseRetryAfter(String value, long nowMillis) {
+        if (value == null) {
+            return -1;
+        }
+        value = value.trim();
+        try {
+            long seconds = Long.parseLong(value);
+            return seconds >= 0 ? TimeUnit.SECONDS.toMillis(seconds) : -1;
+        } catch (NumberFormatException e) {
+            // Not a number of seconds, try a date
+        }
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        try {
+            return Math.max(0, format.parse(value).getTime() - nowMillis);
+        } catch (ParseException e) {
+            return -1;
+        }
+    }
+}
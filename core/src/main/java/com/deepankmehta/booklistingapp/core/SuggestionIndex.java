@@ -0,0 +1,392 @@
+/*
+ * Copyright 2018 Deepank Mehta. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * You may not use this file; except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * Distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * Limitations under the License.
+ */
+package com.deepankmehta.booklistingapp.core;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Prefix index of the titles and authors of the books seen and of the past searches,
+ * returning the most used terms that have a word starting with a prefix.
+ * A key is a word start: the id of a term and the offset of the word in its normalized text, so the
+ * text of a term is stored once whatever its number of words. The keys are sorted by the text from
+ * their offset, so a lookup is a binary search followed by a scan of the matches.
+ * Updates build a new copy of the arrays, merging the new keys in linear time, and must be made
+ * from one thread at a time. Lookups can run on any thread and never wait for an update.
+ */
+public final class SuggestionIndex {
+
+    private static final int MAGIC = 0x53474931;
+    private static final int VERSION = 1;
+
+    /**
+     * Weight added by a sighting of a book, and by a search that returned books
+     */
+    public static final int BOOK_WEIGHT = 1;
+    public static final int QUERY_WEIGHT = 4;
+
+    /**
+     * Smallest size of a saved term: the length of its text and its weight
+     */
+    private static final int MIN_TERM_BYTES = 2 + 4;
+
+    /**
+     * Only the first words of a long title can be looked up by their prefix
+     */
+    private static final int MAX_WORDS_PER_TERM = 8;
+
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+    private static final Pattern SPACES = Pattern.compile("\\s+");
+    private static final Pattern SEPARATORS = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    private final int mMaxTerms;
+
+    /**
+     * Written by the updating thread only
+     */
+    private final Map<String, Integer> mTermIds = new HashMap<>();
+
+    private volatile Table mTable = Table.EMPTY;
+
+    /**
+     * Keeps at most maxTerms terms, the least used ones are dropped when there are more
+     */
+    public SuggestionIndex(int maxTerms) {
+        mMaxTerms = maxTerms;
+    }
+
+    /**
+     * Add the titles and the authors of the books
+     */
+    public void addBooks(List<Book> books) {
+        List<String> terms = new ArrayList<>(books.size() * 2);
+        for (Book book : books) {
+            terms.add(book.getTitle());
+            String author = book.getAuthorNames();
+            if (author != null && !BookStreamParser.MISSING_AUTHORS.equals(author)
+                    && !BookStreamParser.UNKNOWN_AUTHOR.equals(author)) {
+                Collections.addAll(terms, book.getAuthors());
+            }
+        }
+        add(terms, BOOK_WEIGHT);
+    }
+
+    /**
+     * Add a search value
+     */
+    public void addQuery(String query) {
+        add(Collections.singletonList(query), QUERY_WEIGHT);
+    }
+
+    /**
+     * Return up to limit terms having a word that starts with the prefix, the most used first
+     */
+    public List<String> suggest(String prefix, int limit) {
+        Table table = mTable;
+        String key = normalize(prefix);
+        if (key.isEmpty() || limit <= 0) {
+            return Collections.emptyList();
+        }
+        int from = lowerBound(table, key);
+        int[] bestIds = new int[limit];
+        int bestCount = 0;
+        for (int i = from; i < table.keyTermIds.length
+                && table.normalizedTerms[table.keyTermIds[i]].startsWith(key, table.keyOffsets[i]); i++) {
+            int termId = table.keyTermIds[i];
+            int weight = table.weights[termId];
+            if (bestCount == limit && weight <= table.weights[bestIds[limit - 1]]) {
+                continue;
+            }
+            // Several words of a term may start with the prefix
+            if (contains(bestIds, bestCount, termId)) {
+                continue;
+            }
+            // Insert it in weight order, the lightest one drops out of a full list
+            int position = bestCount < limit ? bestCount++ : limit - 1;
+            while (position > 0 && table.weights[bestIds[position - 1]] < weight) {
+                bestIds[position] = bestIds[position - 1];
+                position--;
+            }
+            bestIds[position] = termId;
+        }
+        List<String> suggestions = new ArrayList<>(bestCount);
+        for (int i = 0; i < bestCount; i++) {
+            suggestions.add(table.terms[bestIds[i]]);
+        }
+        return suggestions;
+    }
+
+    /**
+     * Return the number of terms in the index
+     */
+    public int size() {
+        return mTable.terms.length;
+    }
+
+    /**
+     * Write the terms and their weights, the keys are computed again when they are read
+     */
+    public void writeTo(DataOutputStream output) throws IOException {
+        Table table = mTable;
+        output.writeInt(MAGIC);
+        output.writeInt(VERSION);
+        output.writeInt(table.terms.length);
+        for (int i = 0; i < table.terms.length; i++) {
+            output.writeUTF(table.terms[i]);
+            output.writeInt(table.weights[i]);
+        }
+    }
+
+    /**
+     * Replace the content of the index with the terms written by {@link #writeTo(DataOutputStream)},
+     * length is the number of bytes of the input. A count of terms that can't fit in it is rejected
+     * before anything is allocated.
+     */
+    public void readFrom(DataInputStream input, long length) throws IOException {
+        if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+            throw new IOException("Not a suggestion index");
+        }
+        int count = input.readInt();
+        if (count < 0 || count > (length - 3 * 4) / MIN_TERM_BYTES) {
+            throw new IOException("Bad term count " + count);
+        }
+        String[] terms = new String[count];
+        int[] weights = new int[count];
+        for (int i = 0; i < count; i++) {
+            terms[i] = input.readUTF();
+            weights[i] = input.readInt();
+        }
+        rebuild(terms, weights, count);
+    }
+
+    private void add(List<String> values, int weight) {
+        Table table = mTable;
+        int[] weights = Arrays.copyOf(table.weights, table.weights.length + values.size());
+        String[] terms = Arrays.copyOf(table.terms, table.terms.length + values.size());
+        String[] normalizedTerms = Arrays.copyOf(table.normalizedTerms, table.terms.length + values.size());
+        int termCount = table.terms.length;
+        List<Integer> newKeyTermIds = new ArrayList<>();
+        List<Integer> newKeyOffsets = new ArrayList<>();
+        for (String value : values) {
+            String term = value == null ? "" : SPACES.matcher(value.trim()).replaceAll(" ");
+            if (term.isEmpty()) {
+                continue;
+            }
+            Integer termId = mTermIds.get(term);
+            if (termId != null) {
+                weights[termId] += weight;
+                continue;
+            }
+            termId = termCount++;
+            mTermIds.put(term, termId);
+            terms[termId] = term;
+            weights[termId] = weight;
+            normalizedTerms[termId] = normalize(term);
+            for (int offset : wordOffsets(normalizedTerms[termId])) {
+                newKeyTermIds.add(termId);
+                newKeyOffsets.add(offset);
+            }
+        }
+        if (termCount > mMaxTerms) {
+            // Rare, the whole index is sorted again without the least used terms
+            rebuild(terms, weights, termCount);
+            return;
+        }
+        mTable = merge(table, Arrays.copyOf(terms, termCount), Arrays.copyOf(normalizedTerms, termCount),
+                Arrays.copyOf(weights, termCount), newKeyTermIds, newKeyOffsets);
+    }
+
+    /**
+     * Merge the new keys, sorted here, with the sorted keys of the table.
+     * The terms of the table keep their ids, the new keys point at the normalized terms given.
+     */
+    private static Table merge(Table table, String[] terms, final String[] normalizedTerms, int[] weights,
+                               final List<Integer> newKeyTermIds, final List<Integer> newKeyOffsets) {
+        Integer[] order = new Integer[newKeyTermIds.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return compareSuffixes(normalizedTerms[newKeyTermIds.get(a)], newKeyOffsets.get(a),
+                        normalizedTerms[newKeyTermIds.get(b)], newKeyOffsets.get(b));
+            }
+        });
+
+        int oldSize = table.keyTermIds.length;
+        int size = oldSize + order.length;
+        int[] keyTermIds = new int[size];
+        int[] keyOffsets = new int[size];
+        int i = 0;
+        int j = 0;
+        for (int k = 0; k < size; k++) {
+            if (j == order.length || (i < oldSize
+                    && compareSuffixes(normalizedTerms[table.keyTermIds[i]], table.keyOffsets[i],
+                    normalizedTerms[newKeyTermIds.get(order[j])], newKeyOffsets.get(order[j])) <= 0)) {
+                keyTermIds[k] = table.keyTermIds[i];
+                keyOffsets[k] = table.keyOffsets[i];
+                i++;
+            } else {
+                keyTermIds[k] = newKeyTermIds.get(order[j]);
+                keyOffsets[k] = newKeyOffsets.get(order[j]);
+                j++;
+            }
+        }
+        return new Table(keyTermIds, keyOffsets, terms, normalizedTerms, weights);
+    }
+
+    /**
+     * Build the table from scratch with the heaviest terms. Past the maximum number,
+     * a tenth of the room is freed so the next updates don't rebuild it again.
+     */
+    private void rebuild(final String[] allTerms, final int[] allWeights, int count) {
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return allWeights[b] < allWeights[a] ? -1 : (allWeights[b] == allWeights[a] ? 0 : 1);
+            }
+        });
+
+        mTermIds.clear();
+        int termCount = count > mMaxTerms ? mMaxTerms - mMaxTerms / 10 : count;
+        String[] terms = new String[termCount];
+        String[] normalizedTerms = new String[termCount];
+        int[] weights = new int[termCount];
+        List<Integer> keyTermIds = new ArrayList<>();
+        List<Integer> keyOffsets = new ArrayList<>();
+        int termId = 0;
+        for (int i = 0; i < count && termId < termCount; i++) {
+            String term = allTerms[order[i]];
+            if (mTermIds.containsKey(term)) {
+                continue;
+            }
+            mTermIds.put(term, termId);
+            terms[termId] = term;
+            weights[termId] = allWeights[order[i]];
+            normalizedTerms[termId] = normalize(term);
+            for (int offset : wordOffsets(normalizedTerms[termId])) {
+                keyTermIds.add(termId);
+                keyOffsets.add(offset);
+            }
+            termId++;
+        }
+        mTable = merge(Table.EMPTY, Arrays.copyOf(terms, termId), Arrays.copyOf(normalizedTerms, termId),
+                Arrays.copyOf(weights, termId), keyTermIds, keyOffsets);
+    }
+
+    /**
+     * Return the offsets of the starts of the words of a normalized term
+     */
+    private static List<Integer> wordOffsets(String normalized) {
+        List<Integer> offsets = new ArrayList<>();
+        for (int i = 0; i < normalized.length() && offsets.size() < MAX_WORDS_PER_TERM; i++) {
+            if (Character.isLetterOrDigit(normalized.charAt(i))
+                    && (i == 0 || !Character.isLetterOrDigit(normalized.charAt(i - 1)))) {
+                offsets.add(i);
+            }
+        }
+        return offsets;
+    }
+
+    /**
+     * Compare the text of a from aOffset with the text of b from bOffset, like {@link String#compareTo}
+     */
+    private static int compareSuffixes(String a, int aOffset, String b, int bOffset) {
+        int aLength = a.length() - aOffset;
+        int bLength = b.length() - bOffset;
+        int length = Math.min(aLength, bLength);
+        for (int i = 0; i < length; i++) {
+            char aChar = a.charAt(aOffset + i);
+            char bChar = b.charAt(bOffset + i);
+            if (aChar != bChar) {
+                return aChar - bChar;
+            }
+        }
+        return aLength - bLength;
+    }
+
+    /**
+     * Lower case without accents, the words separated by single spaces,
+     * so "Notre-Dame de Paris" is found with "notre d" and "Les Misérables" with "les mis"
+     */
+    static String normalize(String value) {
+        String decomposed = Normalizer.normalize(value, Normalizer.Form.NFD);
+        String withoutMarks = MARKS.matcher(decomposed).replaceAll("");
+        return SEPARATORS.matcher(withoutMarks.toLowerCase(Locale.ROOT)).replaceAll(" ").trim();
+    }
+
+    /**
+     * Return the index of the first key of the table not less than the given one
+     */
+    private static int lowerBound(Table table, String key) {
+        int low = 0;
+        int high = table.keyTermIds.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (compareSuffixes(table.normalizedTerms[table.keyTermIds[middle]], table.keyOffsets[middle],
+                    key, 0) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private static boolean contains(int[] values, int count, int value) {
+        for (int i = 0; i < count; i++) {
+            if (values[i] == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Immutable content of the index: the sorted keys as the id of their term and the offset
+     * of their word, and the terms with their normalized text and their weight
+     */
+    private static final class Table {
+        static final Table EMPTY = new Table(new int[0], new int[0], new String[0], new String[0], new int[0]);
+
+        final int[] keyTermIds;
+        final int[] keyOffsets;
+        final String[] terms;
+        final String[] normalizedTerms;
+        final int[] weights;
+
+        Table(int[] keyTermIds, int[] keyOffsets, String[] terms, String[] normalizedTerms, int[] weights) {
+            this.keyTermIds = keyTermIds;
+            this.keyOffsets = keyOffsets;
+            this.terms = terms;
+            this.normalizedTerms = normalizedTerms;
+            this.weights = weights;
+        }
+    }
+}
@@ -0,0 +1,279 @@
+/*
+ * Copyright 2018 Deepank Mehta. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * You may not use this file; except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * Distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * Limitations under the License.
+ */
+package com.deepankmehta.booklistingapp.core;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * End to end tests of {@link BookClient} against the {@link StandInServer}, and a load run
+ * reporting the latency percentiles and the throughput of the fetch and parse path:
+ * ./gradlew :core:test -Dloadtest=true --tests '*FetchLoadHarness*'
+ * The load is set with -Dloadtest.requests, .concurrency, .latencyMillis, .jitterMillis, .bytesPerSecond,
+ * .errorRate and .truncateRate, and the report is written as JSON to build/loadtest/fetch-load.json,
+ * or to -Dloadtest.output.
+ */
+public class FetchLoadHarness {
+
+    private static final String DEFAULT_OUTPUT = "build/loadtest/fetch-load.json";
+
+    /**
+     * Quick retries so the tests don't wait for the default backoff
+     */
+    private static final RetryPolicy TEST_POLICY = new RetryPolicy(3, 10, 100, 5000, false);
+
+    private StandInServer mServer;
+    private RetryPolicy mRetryPolicy;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new StandInServer(100);
+        mRetryPolicy = BookClient.getRetryPolicy();
+        BookClient.setRetryPolicy(TEST_POLICY);
+        NetworkEstimator.reset();
+    }
+
+    @After
+    public void tearDown() {
+        mServer.stop();
+        BookClient.setRetryPolicy(mRetryPolicy);
+        BookResponseCache.uninstall();
+    }
+
+    @Test
+    public void pagesFollowTheStartIndex() {
+        Set<String> volumeIds = new HashSet<>();
+        int[] expectedSizes = {40, 40, 20, 0};
+        for (int page = 0; page < expectedSizes.length; page++) {
+            List<Book> books = BookClient.fetch(pageUrl(page * 40), null, null);
+            assertNotNull(books);
+            assertEquals(expectedSizes[page], books.size());
+            for (Book book : books) {
+                volumeIds.add(book.getVolumeId());
+            }
+        }
+        assertEquals(100, volumeIds.size());
+    }
+
+    @Test
+    public void transientErrorsAreRetried() {
+        mServer.setRetryAfterSeconds(0);
+        mServer.failNext(1, 503);
+        long retries = BookMetrics.RETRIES.get();
+        assertEquals(40, BookClient.fetch(pageUrl(0), null, null).size());
+        assertEquals(2, mServer.getRequestCount());
+
+        mServer.truncateNext(1);
+        assertEquals(40, BookClient.fetch(pageUrl(0), null, null).size());
+        assertEquals(4, mServer.getRequestCount());
+        assertEquals(retries + 2, BookMetrics.RETRIES.get());
+    }
+
+    @Test
+    public void lastingErrorsFailAfterTheLastAttempt() {
+        mServer.failNext(10, 500);
+        assertNull(BookClient.fetch(pageUrl(0), null, null));
+        assertEquals(TEST_POLICY.getMaxAttempts(), mServer.getRequestCount());
+
+        // A client error is not retried
+        mServer.failNext(10, 404);
+        assertNull(BookClient.fetch(pageUrl(0), null, null));
+        assertEquals(TEST_POLICY.getMaxAttempts() + 1, mServer.getRequestCount());
+    }
+
+    @Test(timeout = 10000)
+    public void aHedgeThatThrowsDoesNotHangTheSearch() {
+        // Quick responses set the hedge delay to a few milliseconds
+        BookClient.setRetryPolicy(new RetryPolicy(3, 10, 100, 5000, true));
+        BookMetrics.reset();
+        for (int i = 0; i < 20; i++) {
+            assertNotNull(BookClient.fetch(pageUrl(0), null, null));
+        }
+
+        // The first request fails once the hedge has started, and the hedge's listener throws
+        mServer.setLatency(300, 0);
+        mServer.failNext(1, 500);
+        long hedgedRequests = BookMetrics.HEDGED_REQUESTS.get();
+        BookList books = BookClient.fetch(pageUrl(0), new BookStreamParser.Listener() {
+            @Override
+            public void onBookParsed(Book book) {
+                throw new IllegalArgumentException("Listener failure");
+            }
+        }, null);
+        assertEquals(hedgedRequests + 1, BookMetrics.HEDGED_REQUESTS.get());
+        assertNull(books);
+    }
+
+    @Test
+    public void staleResponsesAreRevalidatedWithTheirETag() throws IOException {
+        File directory = File.createTempFile("responses", "");
+        directory.delete();
+        directory.mkdirs();
+        // Every entry is stale right away
+        BookResponseCache cache = BookResponseCache.install(directory, 1024 * 1024, 0);
+
+        assertEquals(40, BookClient.fetch(pageUrl(0), null, null).size());
+        assertEquals(40, BookClient.fetch(pageUrl(0), null, null).size());
+        assertEquals(1, mServer.getNotModifiedCount());
+        assertEquals(1, cache.getNotModifiedCount());
+    }
+
+    @Test
+    public void aNotModifiedResponseWithoutItsBodyIsFetchedAgain() throws IOException {
+        File directory = File.createTempFile("responses", "");
+        directory.delete();
+        directory.mkdirs();
+        BookResponseCache cache = BookResponseCache.install(directory, 1024 * 1024, 0);
+        assertEquals(40, BookClient.fetch(pageUrl(0), null, null).size());
+
+        // The body is gone but the entry still has its ETag
+        for (File file : directory.listFiles()) {
+            if (file.getName().endsWith(".body")) {
+                assertTrue(file.delete());
+            }
+        }
+        assertEquals(40, BookClient.fetch(pageUrl(0), null, null).size());
+        assertEquals(3, mServer.getRequestCount());
+        assertEquals(1, mServer.getNotModifiedCount());
+        assertEquals(0, cache.getNotModifiedCount());
+    }
+
+    @Test
+    public void responsesFeedTheNetworkEstimate() {
+        assertEquals(-1, NetworkEstimator.getRttMillis());
+        assertFalse(NetworkEstimator.isSlow(0));
+        // A guessed bandwidth counts until the throughput is measured
+        assertTrue(NetworkEstimator.isSlow(NetworkEstimator.SLOW_THROUGHPUT_KBPS / 2));
+
+        mServer.setLatency(NetworkEstimator.SLOW_RTT_MILLIS + 100, 0);
+        String url = BookClient.buildQueryUrl(mServer.endpoint(), "android", 10, false);
+        assertEquals(10, BookClient.fetch(url, null, null).size());
+        assertTrue(NetworkEstimator.getRttMillis() > NetworkEstimator.SLOW_RTT_MILLIS);
+        assertTrue(NetworkEstimator.isSlow(0));
+    }
+
+    @Test
+    public void aSlowParseDoesNotCountAsASlowNetwork() {
+        // Each book takes a while to handle, the body itself arrives right away
+        List<Book> books = BookClient.fetch(pageUrl(0), new BookStreamParser.Listener() {
+            @Override
+            public void onBookParsed(Book book) {
+                try {
+                    Thread.sleep(25);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, null);
+        assertEquals(40, books.size());
+        assertTrue(NetworkEstimator.getThroughputKbps() > NetworkEstimator.SLOW_THROUGHPUT_KBPS);
+        assertFalse(NetworkEstimator.isSlow(0));
+    }
+
+    @Test
+    public void loadTest() throws Exception {
+        assumeTrue("Run with -Dloadtest=true", Boolean.getBoolean("loadtest"));
+        run(mServer, new File(System.getProperty("loadtest.output", DEFAULT_OUTPUT)));
+    }
+
+    public static void main(String[] args) throws Exception {
+        StandInServer server = new StandInServer(100);
+        try {
+            run(server, new File(args.length > 0 ? args[0] : DEFAULT_OUTPUT));
+        } finally {
+            server.stop();
+        }
+    }
+
+    /**
+     * Send the configured load through {@link BatchRunner} with the default retry policy,
+     * print the report and write it as JSON
+     */
+    static BatchRunner.Report run(StandInServer server, File output) throws IOException, InterruptedException {
+        int requests = Integer.getInteger("loadtest.requests", 2000);
+        int concurrency = Integer.getInteger("loadtest.concurrency", 32);
+        server.setLatency(Long.getLong("loadtest.latencyMillis", 20), Long.getLong("loadtest.jitterMillis", 80));
+        server.setBytesPerSecond(Long.getLong("loadtest.bytesPerSecond", 0));
+        server.setErrorRates(Double.parseDouble(System.getProperty("loadtest.errorRate", "0.01")),
+                Double.parseDouble(System.getProperty("loadtest.truncateRate", "0.005")));
+        server.setRetryAfterSeconds(0);
+
+        RetryPolicy retryPolicy = BookClient.getRetryPolicy();
+        BookClient.setRetryPolicy(RetryPolicy.DEFAULT);
+        BookMetrics.reset();
+        BatchRunner.Report report;
+        try {
+            report = new BatchRunner(server.endpoint(), requests, concurrency, 40).run();
+        } finally {
+            BookClient.setRetryPolicy(retryPolicy);
+        }
+
+        PrintWriter writer = new PrintWriter(System.out, true);
+        report.print(writer);
+        writer.printf("server: %d requests, %d errors and %d truncated bodies injected%n",
+                server.getRequestCount(), server.getErrorCount(), server.getTruncatedCount());
+        BookMetrics.dump("", writer);
+        writer.flush();
+        writeJson(report, server, output);
+        System.out.println("Report written to " + output.getAbsolutePath());
+        return report;
+    }
+
+    private static void writeJson(BatchRunner.Report report, StandInServer server, File output) throws IOException {
+        File directory = output.getAbsoluteFile().getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Can't create " + directory);
+        }
+        Writer writer = new OutputStreamWriter(new FileOutputStream(output), Charset.forName("UTF-8"));
+        try {
+            writer.write(String.format(Locale.US, "{\"requests\": %d, \"concurrency\": %d, \"failures\": %d, "
+                            + "\"requestsPerSecond\": %.1f, \"itemsPerSecond\": %.1f, \"wireBytes\": %d, "
+                            + "\"p50Millis\": %.2f, \"p95Millis\": %.2f, \"p99Millis\": %.2f, \"maxMillis\": %.2f, "
+                            + "\"serverRequests\": %d, \"injectedErrors\": %d, \"truncatedBodies\": %d, "
+                            + "\"retries\": %d, \"hedgedRequests\": %d, \"hedgeWins\": %d, \"deadlineExpired\": %d}%n",
+                    report.requests(), report.concurrency, report.failures, report.requestsPerSecond(),
+                    report.itemsPerSecond(), report.wireBytes, report.percentileMillis(50),
+                    report.percentileMillis(95), report.percentileMillis(99), report.percentileMillis(100),
+                    server.getRequestCount(), server.getErrorCount(), server.getTruncatedCount(),
+                    BookMetrics.RETRIES.get(), BookMetrics.HEDGED_REQUESTS.get(), BookMetrics.HEDGE_WINS.get(),
+                    BookMetrics.DEADLINE_EXPIRED.get()));
+        } finally {
+            writer.close();
+        }
+    }
+
+    private String pageUrl(int startIndex) {
+        String url = BookClient.buildQueryUrl(mServer.endpoint(), "android", 40);
+        return startIndex == 0 ? url : url + "&startIndex=" + startIndex;
+    }
+}
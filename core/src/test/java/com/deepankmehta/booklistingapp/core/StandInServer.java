@@ -0,0 +1,375 @@
+/*
+ * Copyright 2018 Deepank Mehta. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * You may not use this file; except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * Distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * Limitations under the License.
+ */
+package com.deepankmehta.booklistingapp.core;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Local stand-in for the volumes endpoint of the Google Books API, serving pages of canned volumes
+ * built from the test corpus, so the fetch path can be tested and loaded without network access.
+ * Latency, bandwidth, injected errors and truncated bodies can be set at any time.
+ */
+final class StandInServer {
+
+    static final String PATH = "/books/v1/volumes";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int DEFAULT_MAX_RESULTS = 10;
+    private static final int MAX_MAX_RESULTS = 40;
+    private static final int CHUNK_SIZE = 1024;
+
+    private final HttpServer mServer;
+    private final ExecutorService mExecutor = Executors.newCachedThreadPool();
+    private final List<JsonObject> mVolumes;
+
+    /**
+     * Pages built once per startIndex and maxResults
+     */
+    private final Map<String, Page> mPages = new ConcurrentHashMap<>();
+    private final Random mRandom = new Random(42);
+
+    private volatile long mLatencyMillis;
+    private volatile long mLatencyJitterMillis;
+    private volatile long mBytesPerSecond;
+    private volatile double mErrorRate;
+    private volatile double mTruncateRate;
+    private volatile int mRetryAfterSeconds = -1;
+
+    /**
+     * Responses to fail on purpose before going back to the rates above
+     */
+    private final AtomicInteger mFailNextCount = new AtomicInteger();
+    private volatile int mFailNextCode;
+    private final AtomicInteger mTruncateNextCount = new AtomicInteger();
+
+    /**
+     * Counters
+     */
+    private final AtomicInteger mRequestCount = new AtomicInteger();
+    private final AtomicInteger mNotModifiedCount = new AtomicInteger();
+    private final AtomicInteger mErrorCount = new AtomicInteger();
+    private final AtomicInteger mTruncatedCount = new AtomicInteger();
+
+    /**
+     * Start a server of the given number of distinct volumes on a free local port
+     */
+    StandInServer(int volumeCount) throws IOException {
+        mVolumes = volumes(volumeCount);
+        mServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        mServer.createContext(PATH, new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    serve(exchange);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        mServer.setExecutor(mExecutor);
+        mServer.start();
+    }
+
+    /**
+     * Return the URL of the volumes endpoint, to give to {@link BookClient#buildQueryUrl(String, String, int)}
+     */
+    String endpoint() {
+        return "http://127.0.0.1:" + mServer.getAddress().getPort() + PATH;
+    }
+
+    void stop() {
+        mServer.stop(0);
+        mExecutor.shutdownNow();
+    }
+
+    /**
+     * Delay every response by the latency plus a random part up to the jitter
+     */
+    void setLatency(long latencyMillis, long jitterMillis) {
+        mLatencyMillis = latencyMillis;
+        mLatencyJitterMillis = jitterMillis;
+    }
+
+    /**
+     * Send the bodies at most this fast, 0 for no limit
+     */
+    void setBytesPerSecond(long bytesPerSecond) {
+        mBytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * Answer this fraction of the requests with a 429, 500 or 503, and this fraction with a truncated body
+     */
+    void setErrorRates(double errorRate, double truncateRate) {
+        mErrorRate = errorRate;
+        mTruncateRate = truncateRate;
+    }
+
+    /**
+     * Send a Retry-After header with the 429 and 503 responses, -1 for none
+     */
+    void setRetryAfterSeconds(int retryAfterSeconds) {
+        mRetryAfterSeconds = retryAfterSeconds;
+    }
+
+    /**
+     * Answer the next requests with the given status code
+     */
+    void failNext(int count, int responseCode) {
+        mFailNextCode = responseCode;
+        mFailNextCount.set(count);
+    }
+
+    /**
+     * Cut the body of the next responses in the middle
+     */
+    void truncateNext(int count) {
+        mTruncateNextCount.set(count);
+    }
+
+    int getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    int getNotModifiedCount() {
+        return mNotModifiedCount.get();
+    }
+
+    int getErrorCount() {
+        return mErrorCount.get();
+    }
+
+    int getTruncatedCount() {
+        return mTruncatedCount.get();
+    }
+
+    private void serve(HttpExchange exchange) throws IOException, InterruptedException {
+        mRequestCount.incrementAndGet();
+        Map<String, String> parameters = parameters(exchange.getRequestURI().getRawQuery());
+        int startIndex = Math.max(0, parseInt(parameters.get("startIndex"), 0));
+        int maxResults = Math.min(MAX_MAX_RESULTS, Math.max(1, parseInt(parameters.get("maxResults"),
+                DEFAULT_MAX_RESULTS)));
+
+        long jitter = mLatencyJitterMillis;
+        long latency = mLatencyMillis + (jitter > 0 ? (long) (mRandom.nextDouble() * jitter) : 0);
+        if (latency > 0) {
+            TimeUnit.MILLISECONDS.sleep(latency);
+        }
+
+        int errorCode = nextErrorCode();
+        if (errorCode != 0) {
+            mErrorCount.incrementAndGet();
+            if ((errorCode == 429 || errorCode == 503) && mRetryAfterSeconds >= 0) {
+                exchange.getResponseHeaders().set("Retry-After", Integer.toString(mRetryAfterSeconds));
+            }
+            exchange.sendResponseHeaders(errorCode, -1);
+            return;
+        }
+
+        Page page = page(startIndex, maxResults);
+        exchange.getResponseHeaders().set("ETag", page.etag);
+        if (page.etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+            mNotModifiedCount.incrementAndGet();
+            exchange.sendResponseHeaders(304, -1);
+            return;
+        }
+
+        byte[] body = page.body;
+        String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+            body = page.gzippedBody;
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+        }
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+        exchange.sendResponseHeaders(200, body.length);
+
+        // A truncated body announces its full length and stops in the middle
+        int length = body.length;
+        if (mTruncateNextCount.getAndDecrement() > 0 || mRandom.nextDouble() < mTruncateRate) {
+            mTruncatedCount.incrementAndGet();
+            length = body.length / 2;
+        }
+        write(exchange.getResponseBody(), body, length);
+    }
+
+    private int nextErrorCode() {
+        if (mFailNextCount.getAndDecrement() > 0) {
+            return mFailNextCode;
+        }
+        if (mRandom.nextDouble() < mErrorRate) {
+            int[] codes = {429, 500, 503};
+            return codes[mRandom.nextInt(codes.length)];
+        }
+        return 0;
+    }
+
+    /**
+     * Write the body in chunks, pausing between them to stay under the bandwidth
+     */
+    private void write(OutputStream output, byte[] body, int length) throws IOException, InterruptedException {
+        long bytesPerSecond = mBytesPerSecond;
+        for (int offset = 0; offset < length; offset += CHUNK_SIZE) {
+            int count = Math.min(CHUNK_SIZE, length - offset);
+            output.write(body, offset, count);
+            if (bytesPerSecond > 0) {
+                output.flush();
+                TimeUnit.MICROSECONDS.sleep(count * 1000000L / bytesPerSecond);
+            }
+        }
+        output.flush();
+    }
+
+    /**
+     * Return the response of a page like the API does: the total count, and no "items" past the end
+     */
+    private Page page(int startIndex, int maxResults) throws IOException {
+        String key = startIndex + "/" + maxResults;
+        Page page = mPages.get(key);
+        if (page == null) {
+            JsonObject response = new JsonObject();
+            response.addProperty("kind", "books#volumes");
+            response.addProperty("totalItems", mVolumes.size());
+            if (startIndex < mVolumes.size()) {
+                JsonArray items = new JsonArray();
+                for (JsonObject volume : mVolumes.subList(startIndex, Math.min(mVolumes.size(), startIndex + maxResults))) {
+                    items.add(volume);
+                }
+                response.add("items", items);
+            }
+            page = new Page(response.toString().getBytes(UTF_8));
+            mPages.put(key, page);
+        }
+        return page;
+    }
+
+    /**
+     * Body of a page, plain and compressed, and its ETag
+     */
+    private static final class Page {
+        final byte[] body;
+        final byte[] gzippedBody;
+        final String etag;
+
+        Page(byte[] body) throws IOException {
+            this.body = body;
+            gzippedBody = gzip(body);
+            etag = etag(body);
+        }
+    }
+
+    /**
+     * Copies of the corpus volumes, with ids made unique past the first copy
+     */
+    @SuppressWarnings("deprecation")
+    private static List<JsonObject> volumes(int count) throws IOException {
+        InputStream input = StandInServer.class.getClassLoader().getResourceAsStream("corpus/volumes_40.json");
+        if (input == null) {
+            throw new IOException("Missing corpus/volumes_40.json");
+        }
+        JsonArray corpus;
+        try {
+            corpus = new JsonParser().parse(new InputStreamReader(input, UTF_8)).getAsJsonObject()
+                    .getAsJsonArray("items");
+        } finally {
+            input.close();
+        }
+        List<JsonObject> volumes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            JsonObject volume = corpus.get(i % corpus.size()).getAsJsonObject().deepCopy();
+            JsonElement id = volume.get("id");
+            if (i >= corpus.size() && id != null) {
+                volume.addProperty("id", id.getAsString() + "-" + i / corpus.size());
+            }
+            volumes.add(volume);
+        }
+        return volumes;
+    }
+
+    private static Map<String, String> parameters(String query) throws IOException {
+        Map<String, String> parameters = new HashMap<>();
+        if (query == null) {
+            return parameters;
+        }
+        for (String parameter : query.split("&")) {
+            int equals = parameter.indexOf('=');
+            if (equals > 0) {
+                parameters.put(parameter.substring(0, equals),
+                        URLDecoder.decode(parameter.substring(equals + 1), "UTF-8"));
+            }
+        }
+        return parameters;
+    }
+
+    private static int parseInt(String value, int defaultValue) {
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    private static String etag(byte[] body) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(body);
+            StringBuilder etag = new StringBuilder("\"");
+            for (int i = 0; i < 8; i++) {
+                etag.append(String.format("%02x", digest[i]));
+            }
+            return etag.append('"').toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static byte[] gzip(byte[] body) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream(body.length / 4);
+        GZIPOutputStream gzipOutput = new GZIPOutputStream(output);
+        gzipOutput.write(body);
+        gzipOutput.close();
+        return output.toByteArray();
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2018 Deepank Mehta. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the “License”);
+ * You may not use this file; except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * Distributed under the License is distributed on an “AS IS” BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * Limitations under the License.
+ */
+package com.deepankmehta.booklistingapp.core;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Lookups, ranking, eviction and persistence of the {@link SuggestionIndex}
+ */
+public class SuggestionIndexTest {
+
+    @Test
+    public void everyWordOfATermIsAPrefix() {
+        SuggestionIndex index = new SuggestionIndex(100);
+        index.addBooks(Arrays.asList(book("Les Misérables", "Victor Hugo"),
+                book("The Hunchback of Notre-Dame", "Victor Hugo")));
+
+        assertEquals(Collections.singletonList("Les Misérables"), index.suggest("MISER", 5));
+        assertEquals(Collections.singletonList("The Hunchback of Notre-Dame"), index.suggest("notre d", 5));
+        assertEquals(Collections.singletonList("Victor Hugo"), index.suggest("hu", 1));
+        assertEquals(Collections.<String>emptyList(), index.suggest("  ", 5));
+    }
+
+    @Test
+    public void namesWithACommaStayWhole() {
+        SuggestionIndex index = new SuggestionIndex(100);
+        Book book = book("Strength to Love", "Martin Luther King, Jr." + Book.AUTHOR_SEPARATOR + "Coretta Scott King");
+        index.addBooks(Collections.singletonList(book));
+
+        assertEquals("Martin Luther King, Jr., Coretta Scott King", book.getAuthor());
+        assertEquals(Arrays.asList("Martin Luther King, Jr.", "Coretta Scott King"), Arrays.asList(book.getAuthors()));
+        assertEquals(Collections.singletonList("Martin Luther King, Jr."), index.suggest("jr", 5));
+    }
+
+    @Test
+    public void theMostUsedTermsComeFirst() {
+        SuggestionIndex index = new SuggestionIndex(100);
+        index.addBooks(Arrays.asList(book("Dune", null), book("Dune Messiah", null), book("Dubliners", null)));
+        index.addBooks(Collections.singletonList(book("Dubliners", null)));
+        index.addQuery("dune messiah");
+
+        assertEquals(Arrays.asList("dune messiah", "Dubliners", "Dune"), index.suggest("du", 3));
+        assertEquals(Arrays.asList("dune messiah", "Dubliners"), index.suggest("du", 2));
+    }
+
+    @Test
+    public void theLeastUsedTermsAreDropped() {
+        SuggestionIndex index = new SuggestionIndex(10);
+        List<Book> books = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            books.add(book("Book " + i, null));
+        }
+        index.addQuery("book 19");
+        index.addBooks(books);
+
+        assertTrue(index.size() <= 10);
+        assertEquals("book 19", index.suggest("book", 1).get(0));
+    }
+
+    @Test
+    public void theTermsAndWeightsAreSaved() throws IOException {
+        SuggestionIndex index = new SuggestionIndex(100);
+        index.addBooks(Arrays.asList(book("Emma", "Jane Austen"), book("Persuasion", "Jane Austen")));
+        index.addQuery("emma");
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        index.writeTo(new DataOutputStream(bytes));
+        SuggestionIndex copy = new SuggestionIndex(100);
+        copy.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())), bytes.size());
+
+        assertEquals(index.size(), copy.size());
+        assertEquals(index.suggest("e", 5), copy.suggest("e", 5));
+        assertEquals(Collections.singletonList("Jane Austen"), copy.suggest("aus", 5));
+    }
+
+    @Test
+    public void aCountTheFileCantHoldIsRejected() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytes);
+        new SuggestionIndex(100).writeTo(output);
+        byte[] header = Arrays.copyOf(bytes.toByteArray(), bytes.size());
+        // The count of an empty index, in the last four bytes, set to the largest int
+        Arrays.fill(header, header.length - 4, header.length, (byte) 0xff);
+        header[header.length - 4] = 0x7f;
+
+        SuggestionIndex index = new SuggestionIndex(100);
+        try {
+            index.readFrom(new DataInputStream(new ByteArrayInputStream(header)), header.length);
+            fail("The count was accepted");
+        } catch (IOException expected) {
+            assertEquals(0, index.size());
+        }
+    }
+
+    private static Book book(String title, String author) {
+        return new Book(null, title, author, 1.0, "EUR", "en", null, null);
+    }
+}